@@ -8,29 +8,42 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryUsage;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
 import java.util.StringTokenizer;
-import java.util.TreeSet;
-import java.util.regex.Pattern;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import pbsugar.encoder.CM;
+import pbsugar.encoder.Cost;
 import pbsugar.encoder.PBEncoder;
 import pbsugar.pb.PBConstraint;
 import pbsugar.pb.PBLiteral;
 import pbsugar.pb.PBParser;
+import pbsugar.sat.CDCLSolver;
+import pbsugar.sat.ModelReader;
+import pbsugar.sat.Portfolio;
+import pbsugar.sat.SatFile;
 import pbsugar.sat.Solver;
 
 public class PBSugar {
@@ -68,7 +81,7 @@ public class PBSugar {
     }
 
     public String pbFileName = null;
-    public SortedSet<String> varsSet = null;
+    public int[] pbVars = null;
     public PBEncoder encoder = null;
     public String satSolverName = null;
     public boolean miniSat = false;
@@ -76,58 +89,136 @@ public class PBSugar {
     public String mapFileName = null;
     public String outFileName = null;
     public boolean verify = false;
+    // Clauses are written to the standard input of the solver started before encoding
+    public boolean pipe = false;
+    public Solver solver = null;
+    // Objective function of "min:" (null for decision problems)
+    public PBConstraint objective = null;
+    // Result and model of the last SAT solving
+    private Boolean satResult = null;
+    private BitSet satSolution = null;
+    // Clauses are added to the embedded CDCL solver instead of writing a CNF file
+    public boolean embedded = false;
+    // Threads parsing the PB file (option parse)
+    private int parseThreads = 1;
+    public CDCLSolver cdcl = null;
+    // Solvers given by -s1 and -s2 (true for the MiniSat output), which are run at once
+    public boolean portfolio = false;
+    public Map<String,Boolean> portfolioSolvers = new LinkedHashMap<String,Boolean>();
+    // Option profiles (given by -race) encoded and solved at once with the current options
+    public List<String> raceProfiles = new ArrayList<String>();
+    // Options given by -option (and solvers given by -s1 and -s2), which are applied again under each profile
+    private List<String> options = new ArrayList<String>();
     public int debug = 0;
     
-    public int encode() throws IOException {
+    private void setSolver(String satSolverName, boolean miniSat) {
+        this.satSolverName = satSolverName;
+        this.miniSat = miniSat;
+        portfolioSolvers.put(satSolverName, miniSat);
+    }
+
+    private String newOutFileName() throws IOException {
+        File outFile = File.createTempFile("pbsugar", ".out");
+        outFile.deleteOnExit();
+        return outFile.getAbsolutePath();
+    }
+
+    private Solver newSolver(String satFileName) throws IOException {
+        if (miniSat && outFileName == null)
+            outFileName = newOutFileName();
+        return new Solver(satSolverName, satFileName, outFileName);
+    }
+
+    private Portfolio newPortfolio() throws IOException {
+        Portfolio portfolio = new Portfolio();
+        for (Map.Entry<String,Boolean> e : portfolioSolvers.entrySet()) {
+            String outFileName = e.getValue() ? newOutFileName() : null;
+            portfolio.add(new Solver(e.getKey(), satFileName, outFileName));
+        }
+        return portfolio;
+    }
+
+    public void startSolver() throws IOException {
+        PBSugar.info("Starting " + satSolverName + " reading from the standard input");
+        solver = newSolver(Solver.STDIN);
+    }
+
+    /**
+     * Returns a new encoder, which copies the encoding options set at this time.
+     */
+    private PBEncoder newEncoder() throws IOException {
+        if (embedded && satFileName == null) {
+            cdcl = new CDCLSolver();
+            return new PBEncoder(new SatFile(cdcl));
+        }
+        if (solver != null)
+            return new PBEncoder(new SatFile(solver.start()));
         if (satFileName == null) {
             File satFile = File.createTempFile("pbsugar", ".cnf");
             satFile.deleteOnExit();
             satFileName = satFile.getAbsolutePath();
         }
+        // The file is created here to take the options of its racer
+        return new PBEncoder(new SatFile(satFileName));
+    }
+
+    public int encode() throws IOException {
+        if (encoder == null)
+            encoder = newEncoder();
         PBSugar.info("Parsing and Encoding");
-        encoder = new PBEncoder(satFileName);
         encoder.debug = debug;
         encoder.open();
-        varsSet = new TreeSet<String>(new Comparator<String>() {
-            Pattern p = Pattern.compile("x\\d+");
-
-            @Override
-            public int compare(String s0, String s1) {
-                if (p.matcher(s0).matches() && p.matcher(s1).matches()) {
-                    int c0 = Integer.parseInt(s0.substring(1));
-                    int c1 = Integer.parseInt(s1.substring(1));
-                    return c0 < c1 ? -1 : (c0 == c1 ? 0 : 1);
+        int[] vars = new int[1024];
+        int varsCount = 0;
+        PBParser parser = new PBParser(pbFileName, parseThreads);
+        // Variables of the objective are registered even if they are not in constraints
+        objective = parser.objective;
+        if (objective != null) {
+            PBSugar.info("Objective with " + objective.size() + " terms");
+            for (int lit : objective.xs()) {
+                int v = PBLiteral.getVariable(lit);
+                if (! encoder.isPBVar(v)) {
+                    if (varsCount == vars.length)
+                        vars = Arrays.copyOf(vars, 2 * varsCount);
+                    vars[varsCount++] = v;
+                    encoder.newPBVar(v);
                 }
-                return s0.compareTo(s1);
             }
-        });
-        BufferedReader reader = new BufferedReader(new FileReader(pbFileName));
-        PBParser parser = new PBParser(reader);
+        }
         int count = 0;
         while (true) {
             PBConstraint pb = parser.getNext();
             if (pb == null)
                 break;
             count++;
-            for (PBLiteral lit : pb.xs()) {
-                String name = lit.getVariable();
-                if (! varsSet.contains(name)) {
-                    varsSet.add(name);
-                    encoder.newVar(name);
+            for (int lit : pb.xs()) {
+                int v = PBLiteral.getVariable(lit);
+                if (! encoder.isPBVar(v)) {
+                    if (varsCount == vars.length)
+                        vars = Arrays.copyOf(vars, 2 * varsCount);
+                    vars[varsCount++] = v;
+                    encoder.newPBVar(v);
                 }
             }
             encoder.encode(pb);
             if (count % 100000 == 0) {
-                PBSugar.info("Parsing and Encoding " + count + " constraints " + varsSet.size() + " variables");        
+                PBSugar.info("Parsing and Encoding " + count + " constraints " + varsCount + " variables");        
             }
         }
-        PBSugar.info("Parsed and Encoded " + count + " constraints " + varsSet.size() + " variables");        
-        reader.close();
+        PBSugar.info("Parsed and Encoded " + count + " constraints " + varsCount + " variables");        
+        parser.close();
+        pbVars = PBLiteral.sortVariables(vars, varsCount);
         encoder.close();
-        PBSugar.info("CM count " + PBEncoder.countCM);
-        PBSugar.info("CM reused " + PBEncoder.countCMreused);
-        PBSugar.info("CM shared " + PBEncoder.countCMshared);
-        PBSugar.info("PB decomposed " + PBEncoder.countDecompose);
+        PBSugar.info("CM count " + encoder.countCM);
+        PBSugar.info("CM reused " + encoder.countCMreused);
+        PBSugar.info("CM shared " + encoder.countCMshared);
+        PBSugar.info("CM by cardinality network " + encoder.countCardinality);
+        PBSugar.info("CM by totalizer " + encoder.countTotalizer);
+        PBSugar.info("PB encoded as at-most-one " + encoder.countAMO);
+        PBSugar.info("PB decomposed " + encoder.countDecompose);
+        PBSugar.info("PB encoded by base " + encoder.countBase);
+        PBSugar.info("PB encoded by adder " + encoder.countAdder);
+        PBSugar.info("PB encodings chosen " + encoder.countEncodings);
         PBSugar.info("Encoded to SAT with " +
                 encoder.sat.variablesCount + " variables " +
                 encoder.sat.clausesCount + " clauses");
@@ -137,42 +228,118 @@ public class PBSugar {
     public void saveMap(int variables) throws IOException {
         BufferedWriter writer = new BufferedWriter(new FileWriter(mapFileName));
         writer.write(Integer.toString(variables) + "\n");
-        for (String v : varsSet) {
-            int code = encoder.code(v);
-            writer.write(v + " " + code + "\n");
+        for (int v : pbVars) {
+            int code = encoder.pbLiteral(v);
+            writer.write(PBLiteral.name(v) + " " + code + "\n");
         }
         writer.close();
     }
 
     public Set<String> solve(int variables) throws IOException, InterruptedException {
-        PBSugar.info("Solving by " + satSolverName);
-        if (miniSat && outFileName == null) {
-            File outFile = File.createTempFile("pbsugar", ".out");
-            outFile.deleteOnExit();
-            outFileName = outFile.getAbsolutePath();
-        }
-        Solver solver = new Solver(satSolverName, satFileName, outFileName);
-        BitSet satSolution = solver.solve();
-        Boolean satResult = solver.result;
+        solveSAT();
+        return finish();
+    }
+
+    private void solveSAT() throws IOException, InterruptedException {
+        if (cdcl != null) {
+            PBSugar.info("Solving by the embedded CDCL solver");
+            satResult = cdcl.solve();
+            satSolution = cdcl.solution;
+            PBSugar.info("CDCL conflicts " + cdcl.conflicts);
+            PBSugar.info("CDCL decisions " + cdcl.decisions);
+            PBSugar.info("CDCL propagations " + cdcl.propagations);
+            PBSugar.info("CDCL restarts " + cdcl.restarts);
+        } else if (portfolio && solver == null && portfolioSolvers.size() > 1) {
+            PBSugar.info("Solving by " + portfolioSolvers.keySet());
+            Portfolio p = newPortfolio();
+            satSolution = p.solve();
+            satResult = p.result;
+        } else {
+            PBSugar.info("Solving by " + satSolverName);
+            if (solver == null)
+                solver = newSolver(satFileName);
+            solver.variablesCount = encoder.sat.variablesCount;
+            satSolution = solver.solve();
+            satResult = solver.result;
+        }
+    }
+
+    /**
+     * Prints the result of the last SAT solving, or minimizes the objective from its solution.
+     */
+    private Set<String> finish() throws IOException, InterruptedException {
+        if (objective != null && satResult != null && satResult)
+            return minimize();
+        return printSolution(satResult, satSolution);
+    }
+
+    /**
+     * Returns the values of PB variables (as the set of their numbers) in the SAT solution.
+     */
+    private BitSet pbValues(BitSet satSolution) {
+        BitSet values = new BitSet();
+        for (int v : pbVars) {
+            if (satSolution.get(encoder.pbLiteral(v)))
+                values.set(v);
+        }
+        return values;
+    }
+
+    /**
+     * Minimizes the objective by linear search from the last solution.
+     * For the objective value v of each solution, "o v" is printed,
+     * and the clause of objective <= v-1 is appended to the CNF (or the embedded solver),
+     * where the objective itself is encoded only at the first time.
+     * The last solution is optimal when the SAT solver answers UNSAT.
+     */
+    private Set<String> minimize() throws IOException, InterruptedException {
+        BitSet best;
+        do {
+            best = satSolution;
+            BigInteger value = objective.lhs(pbValues(best));
+            System.out.println("o " + value);
+            if (cdcl == null && satFileName == null) {
+                PBSugar.info("Objective is not minimized for the standard input");
+                return printSolution(true, best, false);
+            }
+            BigInteger bound = value.subtract(BigInteger.ONE);
+            encoder.reopen();
+            encoder.encodeObjective(objective, bound);
+            encoder.close();
+            PBSugar.info("Bounded objective <= " + bound + " with " +
+                    encoder.sat.variablesCount + " variables " +
+                    encoder.sat.clausesCount + " clauses");
+            solver = null;
+            solveSAT();
+        } while (satResult != null && satResult);
+        return printSolution(true, best, satResult != null);
+    }
+
+    private Set<String> printSolution(Boolean satResult, BitSet satSolution) {
+        return printSolution(satResult, satSolution, false);
+    }
+
+    private Set<String> printSolution(Boolean satResult, BitSet satSolution, boolean optimum) {
         Set<String> pbSolution = null;
         if (satResult != null && satResult) {
             pbSolution = new HashSet<String>();
-            for (String v : varsSet) {
-                int code = encoder.code(v);
+            for (int v : pbVars) {
+                int code = encoder.pbLiteral(v);
                 if (satSolution.get(code))
-                    pbSolution.add(v);
+                    pbSolution.add(PBLiteral.name(v));
             }
         }
         if (satResult == null) {
             System.out.println("s UNKNOWN");
         } else if (satResult) {
-            System.out.println("s SATISFIABLE");
+            System.out.println(optimum ? "s OPTIMUM FOUND" : "s SATISFIABLE");
             System.out.print("v");
-            for (String v : varsSet) {
-                if (pbSolution.contains(v))
-                    System.out.print(" " + v);
+            for (int v : pbVars) {
+                String name = PBLiteral.name(v);
+                if (pbSolution.contains(name))
+                    System.out.print(" " + name);
                 else
-                    System.out.print(" -" + v);
+                    System.out.print(" -" + name);
             }
             System.out.println();
         } else {
@@ -182,60 +349,150 @@ public class PBSugar {
         return pbSolution;
     }
     
-    private Boolean satSolution(String outFileName, BitSet satSolution) throws IOException {
-        Boolean satResult = null;
-        BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(outFileName), "UTF-8"));
-        String line = reader.readLine();
-        if (line == null) {
-        } else if (line.startsWith("SAT")) {
-            satResult = true;
-            while (true) {
-                line = reader.readLine();
-                if (line == null)
-                    break;
-                StringTokenizer st = new StringTokenizer(line);
-                while (st.hasMoreTokens()) {
-                    int code = Integer.parseInt(st.nextToken());
-                    if (code > 0) {
-                        satSolution.set(code, true);
+    /**
+     * Sets the default options, options, and then the profile (comma separated options).
+     */
+    private void setOptions(List<String> options, String profile) {
+        setDefaultOptions();
+        for (String opt : options)
+            setOption(opt);
+        if (profile != null) {
+            for (String opt : profile.split(",")) {
+                if (! setOption(opt))
+                    throw new IllegalArgumentException("Unknown option " + opt + " in race profile");
+            }
+        }
+    }
+
+    /**
+     * Returns a racer encoding and solving the instance under the profile.
+     */
+    private PBSugar newRacer(String profile) throws IOException {
+        PBSugar racer = new PBSugar();
+        racer.setOptions(options, profile);
+        racer.pbFileName = pbFileName;
+        racer.debug = debug;
+        racer.encoder = racer.newEncoder();
+        if (racer.cdcl == null) {
+            racer.solver = racer.newSolver(racer.satFileName);
+            racer.solver.group = true;
+        }
+        return racer;
+    }
+
+    /**
+     * Encodes the instance with the current options and under each of raceProfiles at once,
+     * each into its own CNF solved as soon as it is encoded.
+     * The first definitive answer is printed as decoded by its encoder,
+     * and the other solvers and encoders are stopped.
+     */
+    public Set<String> race() throws IOException, InterruptedException {
+        final List<PBSugar> racers = new ArrayList<PBSugar>();
+        final List<String> profiles = new ArrayList<String>();
+        profiles.add(null);
+        profiles.addAll(raceProfiles);
+        try {
+            for (String profile : profiles)
+                racers.add(newRacer(profile));
+        } finally {
+            // Restores the static options changed by the profiles
+            (new PBSugar()).setOptions(options, null);
+        }
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(racers.size(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Race");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<PBSugar> completion = new ExecutorCompletionService<PBSugar>(executor);
+        for (final PBSugar racer : racers) {
+            completion.submit(new Callable<PBSugar>() {
+                @Override
+                public PBSugar call() throws IOException, InterruptedException {
+                    racer.encode();
+                    if (racer.cdcl != null) {
+                        racer.cdcl.solve();
                     } else {
-                        satSolution.set(-code, false);
+                        racer.solver.variablesCount = racer.encoder.sat.variablesCount;
+                        racer.solver.solve();
                     }
+                    return racer;
                 }
-            }
-        } else if (line.startsWith("UNSAT")) {
-            satResult = false;
-        } else {
-            while (line != null) {
-                if (line.startsWith("s SAT")) {
-                    satResult = true;
-                } else if (line.startsWith("s UNSAT")) {
-                    satResult = false;
-                } else if (line.startsWith("v ")) {
-                    StringTokenizer st = new StringTokenizer(line);
-                    st.nextToken();
-                    while (st.hasMoreTokens()) {
-                        int code = Integer.parseInt(st.nextToken());
-                        if (code > 0) {
-                            satSolution.set(code, true);
-                        } else {
-                            satSolution.set(-code, false);
-                        }
+            });
+        }
+        PBSugar winner = null;
+        Throwable failure = null;
+        try {
+            for (int i = 0; i < racers.size() && winner == null; i++) {
+                Future<PBSugar> future = completion.take();
+                long time = System.currentTimeMillis() - startTime;
+                try {
+                    PBSugar racer = future.get();
+                    String profile = profiles.get(racers.indexOf(racer));
+                    if (racer.result() == null) {
+                        PBSugar.info("Race profile " + profile + " gave no answer in " + time + " ms");
+                    } else {
+                        PBSugar.info("Race won by profile " + profile + " in " + time + " ms");
+                        winner = racer;
                     }
+                } catch (ExecutionException e) {
+                    PBSugar.info(e.getCause() + " in race");
+                    if (failure == null)
+                        failure = e.getCause();
                 }
-                line = reader.readLine();
             }
+        } finally {
+            for (PBSugar racer : racers)
+                if (racer != winner && racer.solver != null)
+                    racer.solver.destroy();
+            executor.shutdownNow();
+        }
+        if (winner == null && failure != null) {
+            if (failure instanceof IOException)
+                throw (IOException)failure;
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException)failure;
+            throw new IllegalStateException(failure);
         }
-        reader.close();
-        return satResult;
+        if (winner == null)
+            return printSolution(null, null);
+        // The objective is minimized further with the encoder and CNF of the winner
+        encoder = winner.encoder;
+        pbVars = winner.pbVars;
+        objective = winner.objective;
+        satFileName = winner.satFileName;
+        satSolverName = winner.satSolverName;
+        miniSat = winner.miniSat;
+        outFileName = winner.outFileName;
+        portfolio = winner.portfolio;
+        portfolioSolvers = winner.portfolioSolvers;
+        cdcl = winner.cdcl;
+        satResult = winner.result();
+        satSolution = cdcl != null ? cdcl.solution : winner.solver.solution;
+        return finish();
     }
 
+    private Boolean result() {
+        return cdcl != null ? cdcl.result : solver.result;
+    }
+
+    private Boolean satSolution(String outFileName, BitSet satSolution) throws IOException {
+        InputStream in = new FileInputStream(outFileName);
+        try {
+            return new ModelReader(in, satSolution).readOutFile();
+        } finally {
+            in.close();
+        }
+    }
     public Set<String> decode() throws IOException {
         PBSugar.info("Decoding");
         Set<String> pbSolution = null;
         List<String> vars = new ArrayList<String>();
         Map<String,Integer> varsMap = new HashMap<String,Integer>();
+        int maxCode = 0;
         BufferedReader rd = new BufferedReader(
                 new InputStreamReader(new FileInputStream(mapFileName), "UTF-8"));
         int variables = Integer.parseInt(rd.readLine());
@@ -249,10 +506,11 @@ public class PBSugar {
                 int code = Integer.parseInt(s[1]);
                 vars.add(v);
                 varsMap.put(v, code);
+                maxCode = Math.max(maxCode, code);
             }
         }
         rd.close();
-        BitSet satSolution = new BitSet();
+        BitSet satSolution = new BitSet(maxCode + 1);
         Boolean satResult = satSolution(outFileName, satSolution);
         if (satResult != null && satResult) {
             pbSolution = new HashSet<String>();
@@ -262,6 +520,13 @@ public class PBSugar {
                     pbSolution.add(v);
             }
         }
+        if (satResult != null && satResult) {
+            PBParser parser = new PBParser(pbFileName, parseThreads);
+            objective = parser.objective;
+            parser.close();
+            if (objective != null)
+                System.out.println("o " + objective.lhs(pbSolution(pbSolution)));
+        }
         if (satResult == null) {
             System.out.println("s UNKNOWN");
         } else if (satResult) {
@@ -286,13 +551,65 @@ public class PBSugar {
         return pbSolution;
     }
     
-    public void verify(Set<String> pbSolution) throws IOException {
-        if (pbSolution == null)
+    /**
+     * Appends clauses of objective <= b to the CNF file given by -encode,
+     * where the map file gives the codes of PB variables and the literals of the objective
+     * ("o v code" lines for objective >= v), which are appended when it is encoded at the first time.
+     */
+    public void bound(BigInteger b) throws IOException {
+        PBParser parser = new PBParser(pbFileName, parseThreads);
+        objective = parser.objective;
+        parser.close();
+        if (objective == null)
+            throw new IllegalArgumentException("No objective in " + pbFileName);
+        encoder = new PBEncoder(satFileName);
+        encoder.debug = debug;
+        TreeMap<Long,Integer> objectiveCodes = new TreeMap<Long,Integer>();
+        BufferedReader rd = new BufferedReader(
+                new InputStreamReader(new FileInputStream(mapFileName), "UTF-8"));
+        rd.readLine();
+        while (true) {
+            String line = rd.readLine();
+            if (line == null)
+                break;
+            String[] s = line.split("\\s+");
+            if (s.length == 2)
+                encoder.setPBVar(PBLiteral.variable(s[0]), Integer.parseInt(s[1]));
+            else if (s.length == 3 && s[0].equals("o"))
+                objectiveCodes.put(Long.parseLong(s[1]), Integer.parseInt(s[2]));
+        }
+        rd.close();
+        if (! objectiveCodes.isEmpty())
+            encoder.setObjectiveCodes(objectiveCodes);
+        PBSugar.info("Bounding objective <= " + b);
+        encoder.reopen();
+        encoder.encodeObjective(objective, b);
+        encoder.close();
+        if (objectiveCodes.isEmpty() && encoder.getObjectiveCodes() != null) {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(mapFileName, true));
+            for (Map.Entry<Long,Integer> e : encoder.getObjectiveCodes().entrySet())
+                writer.write("o " + e.getKey() + " " + e.getValue() + "\n");
+            writer.close();
+        }
+        PBSugar.info("Encoded to SAT with " +
+                encoder.sat.variablesCount + " variables " +
+                encoder.sat.clausesCount + " clauses");
+    }
+
+    private BitSet pbSolution(Set<String> pbSolution) {
+        BitSet solution = new BitSet();
+        for (String v : pbSolution)
+            solution.set(PBLiteral.variable(v));
+        return solution;
+    }
+
+    public void verify(Set<String> pbSolution0) throws IOException {
+        if (pbSolution0 == null)
             return;
         PBSugar.info("Verifying");
+        BitSet pbSolution = pbSolution(pbSolution0);
         int violation = 0;
-        BufferedReader reader = new BufferedReader(new FileReader(pbFileName));
-        PBParser parser = new PBParser(reader);
+        PBParser parser = new PBParser(pbFileName, parseThreads);
         while (true) {
             PBConstraint pb = parser.getNext();
             if (pb == null)
@@ -302,7 +619,7 @@ public class PBSugar {
                 PBSugar.info("ERROR Violation LHS=" + pb.lhs(pbSolution) + " at " + pb);
             }
         }
-        reader.close();
+        parser.close();
         if (violation == 0)
             PBSugar.info("Verified");
         else
@@ -343,19 +660,19 @@ public class PBSugar {
             System.out.println("s NOT VERIFIED");
             return;
         }
-        BufferedReader rd2 = new BufferedReader(new FileReader(pbFileName));
-        PBParser parser = new PBParser(rd2);
+        PBParser parser = new PBParser(pbFileName, parseThreads);
+        BitSet solution = pbSolution(pbSolution);
         int violation = 0;
         while (true) {
             PBConstraint pb = parser.getNext();
             if (pb == null)
                 break;
-            if (! pb.isSatisfied(pbSolution)) {
+            if (! pb.isSatisfied(solution)) {
                 violation++;
-                PBSugar.info("Found violation LHS=" + pb.lhs(pbSolution) + " at " + pb);
+                PBSugar.info("Found violation LHS=" + pb.lhs(solution) + " at " + pb);
             }
         }
-        rd2.close();
+        parser.close();
         if (violation == 0) {
             System.out.println("s VERIFIED");
         } else {
@@ -367,14 +684,18 @@ public class PBSugar {
     private boolean setOption(String opt) {
         if (opt.matches("(no_)?verify")) {
             verify = ! opt.startsWith("no_");
+        } else if (opt.matches("(no_)?pipe")) {
+            pipe = ! opt.startsWith("no_");
+        } else if (opt.matches("(no_)?embedded")) {
+            embedded = ! opt.startsWith("no_");
+        } else if (opt.matches("(no_)?portfolio")) {
+            portfolio = ! opt.startsWith("no_");
         } else if (opt.matches("s1=(.+)")) {
             int n = opt.indexOf('=') + 1;
-            satSolverName = opt.substring(n);
-            miniSat = false;
+            setSolver(opt.substring(n), false);
         } else if (opt.matches("s2=(.+)")) {
             int n = opt.indexOf('=') + 1;
-            satSolverName = opt.substring(n);
-            miniSat = true;
+            setSolver(opt.substring(n), true);
         } else if (opt.matches("(no_)?axioms")) {
             CM.ORDER_AXIOMS = ! opt.startsWith("no_");
         } else if (opt.matches("sort=(n(o)?|l(it)?|a(sc)?|d(es)?)")) {
@@ -405,10 +726,40 @@ public class PBSugar {
             PBEncoder.USE_SPARSE_CM = ! opt.startsWith("no_");
         } else if (opt.matches("(no_)?dense")) {
             PBEncoder.USE_SPARSE_CM = opt.startsWith("no_");
+        } else if (opt.matches("(no_)?card(inality)?")) {
+            PBEncoder.USE_CARDINALITY_CM = ! opt.startsWith("no_");
+        } else if (opt.matches("(no_)?gte")) {
+            PBEncoder.USE_TOTALIZER_CM = ! opt.startsWith("no_");
+        } else if (opt.matches("(no_)?amo")) {
+            PBEncoder.USE_AMO = ! opt.startsWith("no_");
+        } else if (opt.matches("compress=(no(ne)?|gz(ip)?|xz|zst(d)?)")) {
+            if (opt.startsWith("compress=n"))
+                SatFile.COMPRESS = SatFile.NONE;
+            else if (opt.startsWith("compress=g"))
+                SatFile.COMPRESS = SatFile.GZIP;
+            else if (opt.startsWith("compress=x"))
+                SatFile.COMPRESS = SatFile.XZ;
+            else
+                SatFile.COMPRESS = SatFile.ZSTD;
+        } else if (opt.matches("write=(\\d+)")) {
+            int n = opt.indexOf('=') + 1;
+            SatFile.WRITE_BUFFERS = Integer.parseInt(opt.substring(n));
+        } else if (opt.matches("parse=(\\d+)")) {
+            int n = opt.indexOf('=') + 1;
+            parseThreads = Integer.parseInt(opt.substring(n));
         } else if (opt.matches("base=(\\d+)")) {
-            // future work
             int n = opt.indexOf('=') + 1;
             PBEncoder.BASE = new BigInteger(opt.substring(n));
+        } else if (opt.matches("cm_limit=(\\d+)")) {
+            int n = opt.indexOf('=') + 1;
+            PBEncoder.CM_LIMIT = Long.parseLong(opt.substring(n));
+        } else if (opt.matches("cost=(n(one)?|c(lauses)?|v(ar(iable)?s)?)")) {
+            if (opt.startsWith("cost=n"))
+                PBEncoder.COST = Cost.NONE;
+            else if (opt.startsWith("cost=c"))
+                PBEncoder.COST = Cost.CLAUSES;
+            else if (opt.startsWith("cost=v"))
+                PBEncoder.COST = Cost.VARIABLES;
          } else {
             return false;
         }
@@ -417,6 +768,10 @@ public class PBSugar {
     
     private void setDefaultOptions() {
         verify = false;
+        pipe = false;
+        embedded = false;
+        portfolio = false;
+        portfolioSolvers.clear();
         satSolverName = "minisat";
         miniSat = true;
         CM.ORDER_AXIOMS = true;
@@ -427,9 +782,17 @@ public class PBSugar {
         PBEncoder.DECOMPOSE_PB = 100;
         PBEncoder.ENCODE_AS_CNF_LITERALS_SIZE = 3;
         PBEncoder.USE_SPARSE_CM = true;
+        PBEncoder.USE_CARDINALITY_CM = true;
+        PBEncoder.USE_AMO = true;
+        PBEncoder.USE_TOTALIZER_CM = true;
         // PBEncoder.BASE = new BigInteger("120");
         PBEncoder.BASE = null;
         PBEncoder.SUM_CARRIES = false;
+        PBEncoder.CM_LIMIT = 1L << 24;
+        PBEncoder.COST = Cost.CLAUSES;
+        parseThreads = 1;
+        SatFile.WRITE_BUFFERS = 0;
+        SatFile.COMPRESS = -1;
     }
     
     public static void main(String[] args) {
@@ -439,12 +802,15 @@ public class PBSugar {
             int i = 0;
             while (i < args.length) {
                 if (args[i].equals("-s1") && i + 1 < args.length) {
-                    pbSugar.satSolverName = args[i+1];
-                    pbSugar.miniSat = false;
+                    pbSugar.setSolver(args[i+1], false);
+                    pbSugar.options.add("s1=" + args[i+1]);
                     i++;
                 } else if (args[i].equals("-s2") && i + 1 < args.length) {
-                    pbSugar.satSolverName = args[i+1];
-                    pbSugar.miniSat = true;
+                    pbSugar.setSolver(args[i+1], true);
+                    pbSugar.options.add("s2=" + args[i+1]);
+                    i++;
+                } else if (args[i].equals("-race") && i + 1 < args.length) {
+                    pbSugar.raceProfiles.add(args[i+1]);
                     i++;
                 } else if (args[i].equals("-debug") && i + 1 < args.length) {
                     pbSugar.debug = Integer.parseInt(args[i+1]);
@@ -458,6 +824,7 @@ public class PBSugar {
                             System.out.println("Unknown option");
                             System.exit(1);
                         }
+                        pbSugar.options.add(opt);
                     }
                     i++;
                 } else {
@@ -467,8 +834,15 @@ public class PBSugar {
             }
             if (i+1 == args.length) {
                 pbSugar.pbFileName = args[i];
-                int variables = pbSugar.encode();
-                Set<String> pbSolution = pbSugar.solve(variables);
+                Set<String> pbSolution;
+                if (! pbSugar.raceProfiles.isEmpty()) {
+                    pbSolution = pbSugar.race();
+                } else {
+                    if (pbSugar.pipe && ! pbSugar.portfolio && ! pbSugar.embedded)
+                        pbSugar.startSolver();
+                    int variables = pbSugar.encode();
+                    pbSolution = pbSugar.solve(variables);
+                }
                 if (pbSugar.verify)
                     pbSugar.verify(pbSolution);
             } else if (i+4 == args.length && args[i].equals("-encode")) {
@@ -477,6 +851,11 @@ public class PBSugar {
                 pbSugar.mapFileName = args[i+3];
                 int variables = pbSugar.encode();
                 pbSugar.saveMap(variables);
+            } else if (i+5 == args.length && args[i].equals("-bound")) {
+                pbSugar.pbFileName = args[i+1];
+                pbSugar.satFileName = args[i+2];
+                pbSugar.mapFileName = args[i+3];
+                pbSugar.bound(new BigInteger(args[i+4]));
             } else if (i+4 == args.length && args[i].equals("-decode")) {
                 pbSugar.pbFileName = args[i+1];
                 pbSugar.outFileName = args[i+2];
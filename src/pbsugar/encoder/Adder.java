@@ -0,0 +1,185 @@
+package pbsugar.encoder;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary adder network of sum(as*xs) (Warners' encoding).
+ * Bits of the coefficients are put into buckets of each weight 2^k,
+ * and reduced by full adders (and half adders) until one bit remains in each bucket.
+ * Its size is O(n log(max as)) for arbitrary precision coefficients.
+ */
+public class Adder {
+    private int n;
+    private BigInteger[] as;
+    private int[] xs;
+    private PBEncoder encoder;
+    private int[] bits = null;
+
+    /**
+     * Coefficients as are positive, and xs are SAT literals.
+     */
+    public Adder(BigInteger[] as, int[] xs, PBEncoder encoder) {
+        assert(as.length == xs.length);
+        this.n = as.length;
+        this.as = as;
+        this.xs = xs;
+        this.encoder = encoder;
+    }
+
+    public int n() {
+        return n;
+    }
+
+    public int[] bits() {
+        return bits;
+    }
+
+    private int neg(int lit) {
+        return encoder.neg(lit);
+    }
+
+    private int newVar() {
+        return encoder.newVar(encoder.newAuxVar("a"));
+    }
+
+    /**
+     * Returns s with s <==> x xor y.
+     */
+    private int xor(int x, int y) throws IOException {
+        if (x == Encoder.FALSE)
+            return y;
+        if (y == Encoder.FALSE)
+            return x;
+        if (x == Encoder.TRUE)
+            return neg(y);
+        if (y == Encoder.TRUE)
+            return neg(x);
+        int s = newVar();
+        encoder.writeClause(neg(x), neg(y), neg(s));
+        encoder.writeClause(x, y, neg(s));
+        encoder.writeClause(neg(x), y, s);
+        encoder.writeClause(x, neg(y), s);
+        return s;
+    }
+
+    /**
+     * Returns c with c <==> x and y.
+     */
+    private int and(int x, int y) throws IOException {
+        if (x == Encoder.FALSE || y == Encoder.FALSE)
+            return Encoder.FALSE;
+        if (x == Encoder.TRUE)
+            return y;
+        if (y == Encoder.TRUE)
+            return x;
+        int c = newVar();
+        encoder.writeClause(x, neg(c));
+        encoder.writeClause(y, neg(c));
+        encoder.writeClause(neg(x), neg(y), c);
+        return c;
+    }
+
+    /**
+     * Returns c with c <==> x or y.
+     */
+    private int or(int x, int y) throws IOException {
+        return neg(and(neg(x), neg(y)));
+    }
+
+    /**
+     * Full adder: returns {s, c} with x + y + z = s + 2*c.
+     */
+    private int[] fullAdder(int x, int y, int z) throws IOException {
+        int s = newVar();
+        int c = newVar();
+        // s <==> x xor y xor z
+        encoder.writeClause(neg(x), neg(y), neg(z), s);
+        encoder.writeClause(neg(x), y, z, s);
+        encoder.writeClause(x, neg(y), z, s);
+        encoder.writeClause(x, y, neg(z), s);
+        encoder.writeClause(x, y, z, neg(s));
+        encoder.writeClause(x, neg(y), neg(z), neg(s));
+        encoder.writeClause(neg(x), y, neg(z), neg(s));
+        encoder.writeClause(neg(x), neg(y), z, neg(s));
+        // c <==> at least two of x, y, z
+        encoder.writeClause(neg(x), neg(y), c);
+        encoder.writeClause(neg(x), neg(z), c);
+        encoder.writeClause(neg(y), neg(z), c);
+        encoder.writeClause(x, y, neg(c));
+        encoder.writeClause(x, z, neg(c));
+        encoder.writeClause(y, z, neg(c));
+        return new int[] { s, c };
+    }
+
+    public void encode() throws IOException {
+        List<ArrayDeque<Integer>> buckets = new ArrayList<ArrayDeque<Integer>>();
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < as[i].bitLength(); k++) {
+                if (! as[i].testBit(k))
+                    continue;
+                while (buckets.size() <= k)
+                    buckets.add(new ArrayDeque<Integer>());
+                buckets.get(k).add(xs[i]);
+            }
+        }
+        List<Integer> result = new ArrayList<Integer>();
+        for (int k = 0; k < buckets.size(); k++) {
+            ArrayDeque<Integer> bucket = buckets.get(k);
+            while (bucket.size() >= 2) {
+                int x = bucket.poll();
+                int y = bucket.poll();
+                int[] sc;
+                if (bucket.isEmpty()) {
+                    sc = new int[] { xor(x, y), and(x, y) };
+                } else {
+                    sc = fullAdder(x, y, bucket.poll());
+                }
+                bucket.add(sc[0]);
+                if (k + 1 == buckets.size())
+                    buckets.add(new ArrayDeque<Integer>());
+                buckets.get(k + 1).add(sc[1]);
+            }
+            result.add(bucket.isEmpty() ? Encoder.FALSE : bucket.poll());
+        }
+        bits = new int[result.size()];
+        for (int k = 0; k < bits.length; k++)
+            bits[k] = result.get(k);
+    }
+
+    /**
+     * Returns a SAT literal equivalent to sum(as*xs) >= v
+     * by comparing bits from the lowest one, where
+     * g(k) <==> (sum mod 2^(k+1)) >= (v mod 2^(k+1)).
+     */
+    public int ge(BigInteger v) throws IOException {
+        if (v.signum() <= 0)
+            return Encoder.TRUE;
+        if (v.bitLength() > bits.length)
+            return Encoder.FALSE;
+        int g = Encoder.TRUE;
+        for (int k = 0; k < bits.length; k++) {
+            if (v.testBit(k))
+                g = and(bits[k], g);
+            else
+                g = or(bits[k], g);
+        }
+        return g;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Adder(" + n + ")" + " =");
+        for (int i = 0; i < n; i++) {
+            sb.append(" +");
+            sb.append(as[i].toString());
+            sb.append(" ");
+            sb.append(encoder.decode(xs[i]));
+        }
+        return sb.toString();
+    }
+}
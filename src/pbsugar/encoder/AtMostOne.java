@@ -0,0 +1,141 @@
+package pbsugar.encoder;
+
+import java.io.IOException;
+
+/**
+ * At-most-one constraint over literals xs.
+ * It is encoded by the pairwise, ladder (sequential counter), or product encoding
+ * which gives the fewest clauses (with fewer auxiliary variables in ties).
+ * The ladder and product encodings have O(n) clauses.
+ * Clauses are emitted by encoder.emitClause.
+ */
+public class AtMostOne {
+    public static final int PAIRWISE = 0;
+    public static final int LADDER = 1;
+    public static final int PRODUCT = 2;
+
+    private int[] xs;
+    private PBEncoder encoder;
+
+    public AtMostOne(int[] xs, PBEncoder encoder) {
+        this.xs = xs;
+        this.encoder = encoder;
+    }
+
+    private static int rows(int n) {
+        int p = (int)Math.ceil(Math.sqrt(n));
+        return (n + p - 1) / p;
+    }
+
+    private static int cols(int n) {
+        return Math.min((int)Math.ceil(Math.sqrt(n)), n);
+    }
+
+    /**
+     * Returns {clauses, variables} of the encoding chosen for n literals.
+     */
+    private static long[] cost(int n, int method) {
+        if (method == PAIRWISE)
+            return new long[] { (long)n * (n - 1) / 2, 0 };
+        if (method == LADDER)
+            return new long[] { 3L * n - 4, n - 1 };
+        int p = rows(n);
+        int q = cols(n);
+        long[] c1 = cost(p, choose(p));
+        long[] c2 = cost(q, choose(q));
+        return new long[] { 2L * n + c1[0] + c2[0], p + q + c1[1] + c2[1] };
+    }
+
+    /**
+     * Returns {clauses, variables} of the encoding for n literals.
+     */
+    public static long[] cost(int n) {
+        return cost(n, choose(n));
+    }
+
+    public static int choose(int n) {
+        if (n <= 2)
+            return PAIRWISE;
+        int best = PAIRWISE;
+        long[] c0 = cost(n, PAIRWISE);
+        int last = n >= 4 ? PRODUCT : LADDER;
+        for (int method = LADDER; method <= last; method++) {
+            long[] c = cost(n, method);
+            if (c[0] < c0[0] || (c[0] == c0[0] && c[1] < c0[1])) {
+                best = method;
+                c0 = c;
+            }
+        }
+        return best;
+    }
+
+    private int neg(int lit) {
+        return encoder.neg(lit);
+    }
+
+    private int newVars(int size) {
+        return encoder.newVar(encoder.newAuxVar("o"), size);
+    }
+
+    private void encodePairwise(int[] xs) throws IOException {
+        for (int i = 0; i < xs.length; i++)
+            for (int j = i + 1; j < xs.length; j++)
+                encoder.emitClause(neg(xs[i]), neg(xs[j]));
+    }
+
+    /**
+     * s(i) is implied by x(1) + ... + x(i) >= 1, and x(i+1) is false when s(i) is true.
+     */
+    private void encodeLadder(int[] xs) throws IOException {
+        int n = xs.length;
+        int s0 = newVars(n - 1);
+        encoder.emitClause(neg(xs[0]), s0);
+        for (int i = 1; i < n - 1; i++) {
+            encoder.emitClause(neg(xs[i]), s0 + i);
+            encoder.emitClause(neg(s0 + i - 1), s0 + i);
+            encoder.emitClause(neg(xs[i]), neg(s0 + i - 1));
+        }
+        encoder.emitClause(neg(xs[n-1]), neg(s0 + n - 2));
+    }
+
+    /**
+     * x(k) is placed at row k/q and column k%q,
+     * and at most one row and at most one column are selected.
+     */
+    private void encodeProduct(int[] xs) throws IOException {
+        int n = xs.length;
+        int p = rows(n);
+        int q = cols(n);
+        int u0 = newVars(p);
+        int v0 = newVars(q);
+        for (int k = 0; k < n; k++) {
+            encoder.emitClause(neg(xs[k]), u0 + k / q);
+            encoder.emitClause(neg(xs[k]), v0 + k % q);
+        }
+        int[] us = new int[p];
+        for (int i = 0; i < p; i++)
+            us[i] = u0 + i;
+        int[] vs = new int[q];
+        for (int j = 0; j < q; j++)
+            vs[j] = v0 + j;
+        encode(us);
+        encode(vs);
+    }
+
+    private void encode(int[] xs) throws IOException {
+        switch (choose(xs.length)) {
+        case LADDER:
+            encodeLadder(xs);
+            break;
+        case PRODUCT:
+            encodeProduct(xs);
+            break;
+        default:
+            encodePairwise(xs);
+        }
+    }
+
+    public void encode() throws IOException {
+        encode(xs);
+    }
+}
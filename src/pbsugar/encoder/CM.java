@@ -1,10 +1,8 @@
 package pbsugar.encoder;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.List;
 
 import pbsugar.PBSugar;
 import pbsugar.pb.PBConstraint;
@@ -38,7 +36,7 @@ public abstract class CM {
             s += this.as[i];
             sumMax[i] = s;
         }
-        if (PBEncoder.USE_SPARSE_CM) {
+        if (encoder.useSparseCM) {
             domain = new Domain[n];
             Domain d = new Domain(0);
             for (int i = 0; i < n; i++) {
@@ -65,7 +63,7 @@ public abstract class CM {
             }
         }
         key = new CMkey(as, xs);
-        int len = PBEncoder.SHARABLE_CM_LENGTH;
+        int len = encoder.sharableCMLength;
         if (len > 0)
             sharableKey = new CMkey(Arrays.copyOf(as, len), Arrays.copyOf(xs, len));
     }
@@ -86,6 +84,25 @@ public abstract class CM {
         return xs;
     }
 
+    /**
+     * Returns the number of elements (s(i) >= j for j >= 1) of the matrix.
+     */
+    public long size() {
+        if (domain == null)
+            return (long)n * m;
+        long size = 0;
+        for (Domain d : domain)
+            size += d.size() - 1;
+        return size;
+    }
+
+    /**
+     * Returns the estimated cost, where about 5 clauses are written for each element.
+     */
+    public Cost cost() {
+        return new Cost(name, size(), 5 * size());
+    }
+
     public CMkey key() {
         return key;
     }
@@ -122,37 +139,35 @@ public abstract class CM {
 
     public abstract void encode() throws IOException;
     
-    public List<Clause> encodeCmp(String cmp, int b) {
+    /**
+     * Emits clauses of sum(as*xs) cmp b by encoder.emitClause.
+     */
+    public void encodeCmp(String cmp, int b) throws IOException {
         if (cmp.equals(PBConstraint.LE)) {
             if (b < 0) {
-                return PBEncoder.FALSE_CNF;
+                encoder.emitClause();
             } else {
-                return encoder.singletonCNF(new Clause(neg(elem(n, b+1))));
+                encoder.emitClause(neg(elem(n, b+1)));
             }
         } else if (cmp.equals(PBConstraint.GE)) {
-            if (b == 0) {
-                return PBEncoder.TRUE_CNF;
-            } else {
-                return encoder.singletonCNF(new Clause(elem(n, b)));
+            if (b != 0) {
+                encoder.emitClause(elem(n, b));
             }
         } else if (cmp.equals(PBConstraint.EQ)) {
             if (b < 0) {
-                return PBEncoder.FALSE_CNF;
+                encoder.emitClause();
             } else if (b == 0) {
-                return encoder.singletonCNF(new Clause(neg(elem(n, b+1))));
+                encoder.emitClause(neg(elem(n, b+1)));
             } else {
-                List<Clause> clauses = new ArrayList<Clause>();
-                clauses.add(new Clause(elem(n, b)));
-                clauses.add(new Clause(neg(elem(n, b+1))));
-                return clauses;
+                encoder.emitClause(elem(n, b));
+                encoder.emitClause(neg(elem(n, b+1)));
             }
         } else { // cmp.equals(PBConstraint.NE)
             if (b < 0) {
-                return PBEncoder.TRUE_CNF;
             } else if (b == 0) {
-                return encoder.singletonCNF(new Clause(elem(n, b+1)));
+                encoder.emitClause(elem(n, b+1));
             } else {
-                return encoder.singletonCNF(new Clause(neg(elem(n, b)), elem(n, b)));
+                encoder.emitClause(neg(elem(n, b)), elem(n, b+1));
             }
         }
     }
@@ -163,7 +178,7 @@ public abstract class CM {
         if (encoder.debug >= 2) {
             encoder.writeComment(sum + " " + code0 + " " + domain + "#" + domain.size());
         }
-        if (ORDER_AXIOMS) {
+        if (encoder.orderAxioms) {
             for (int index = 1; index < size - 1; index++) {
                 encoder.writeClause(neg(code0 + index), (code0 + index - 1));
             }
@@ -0,0 +1,139 @@
+package pbsugar.encoder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Cardinality network of x(1) + ... + x(n) (all coefficients are 1)
+ * given by Batcher's odd-even merge sorting network,
+ * where comparators not reaching the first m outputs are removed.
+ * The size is O(n log^2 n), and only elem(n, j) is available.
+ */
+public class CardinalityCM extends CM {
+    private String matrix = null;
+    // Wires of the sorting network (n is padded to a power of 2 by false inputs)
+    private int wires;
+    // Comparators in the order of the network, each as (a << 2 | max << 1 | min) and b,
+    // where max (min) is set when the max (min) output is used
+    private int[] comparators;
+    private int count = 0;
+    private int gates = 0;
+    private int[] outputs = null;
+
+    public CardinalityCM(int[] as, int[] xs, int m, PBEncoder encoder) {
+        super(as, xs, m, encoder);
+        name = "CardinalityCM";
+        wires = 1;
+        while (wires < n)
+            wires *= 2;
+        prune();
+        gates = countGates();
+    }
+
+    /**
+     * Visits the layers of the network backward, and keeps comparators
+     * whose outputs are needed by later comparators or the first m outputs.
+     */
+    private void prune() {
+        boolean[] needed = new boolean[wires];
+        Arrays.fill(needed, 0, Math.min(m, n), true);
+        comparators = new int[64];
+        for (int p = wires / 2; p >= 1; p /= 2) {
+            for (int k = 1; k <= p; k *= 2) {
+                for (int j = k % p; j + k < wires; j += 2 * k) {
+                    for (int i = 0; i < k && i + j + k < wires; i++) {
+                        int a = i + j;
+                        int b = i + j + k;
+                        if (a / (2 * p) != b / (2 * p))
+                            continue;
+                        if (! needed[a] && ! needed[b])
+                            continue;
+                        if (2 * count + 2 > comparators.length)
+                            comparators = Arrays.copyOf(comparators, 2 * comparators.length);
+                        comparators[2*count] = a << 2 | (needed[a] ? 2 : 0) | (needed[b] ? 1 : 0);
+                        comparators[2*count+1] = b;
+                        count++;
+                        needed[a] = true;
+                        needed[b] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of gates, where comparators with a false input need no gates.
+     */
+    private int countGates() {
+        boolean[] isFalse = new boolean[wires];
+        Arrays.fill(isFalse, n, wires, true);
+        int g = 0;
+        for (int c = count - 1; c >= 0; c--) {
+            int a = comparators[2*c] >> 2;
+            int b = comparators[2*c+1];
+            if (isFalse[a] || isFalse[b]) {
+                isFalse[a] = isFalse[a] && isFalse[b];
+                isFalse[b] = true;
+            } else {
+                g += (comparators[2*c] & 2) >> 1;
+                g += comparators[2*c] & 1;
+            }
+        }
+        return g;
+    }
+
+    /**
+     * Each gate has 3 clauses.
+     */
+    @Override
+    public Cost cost() {
+        return new Cost(name, gates, 3L * gates);
+    }
+
+    @Override
+    public int elem0(int i, int j) {
+        if (i != n || j < 1 || j > m || outputs == null)
+            throw new IllegalArgumentException("elem " + i + " " + j);
+        return outputs[j-1];
+    }
+
+    /**
+     * Max of x and y is (x or y), and min of them is (x and y).
+     */
+    @Override
+    public void encode() throws IOException {
+        int code = 0;
+        if (gates > 0) {
+            matrix = encoder.newAuxVar("c");
+            code = encoder.newVar(matrix, gates);
+        }
+        int[] lits = new int[wires];
+        Arrays.fill(lits, Encoder.FALSE);
+        System.arraycopy(xs, 0, lits, 0, n);
+        for (int c = count - 1; c >= 0; c--) {
+            int a = comparators[2*c] >> 2;
+            int b = comparators[2*c+1];
+            int x = lits[a];
+            int y = lits[b];
+            if (x == Encoder.FALSE || y == Encoder.FALSE) {
+                lits[a] = x == Encoder.FALSE ? y : x;
+                lits[b] = Encoder.FALSE;
+                continue;
+            }
+            if ((comparators[2*c] & 2) != 0) {
+                lits[a] = code++;
+                encoder.writeClause(neg(x), lits[a]);
+                encoder.writeClause(neg(y), lits[a]);
+                encoder.writeClause(x, y, neg(lits[a]));
+            }
+            if ((comparators[2*c] & 1) != 0) {
+                lits[b] = code++;
+                encoder.writeClause(x, neg(lits[b]));
+                encoder.writeClause(y, neg(lits[b]));
+                encoder.writeClause(neg(x), neg(y), lits[b]);
+            }
+        }
+        outputs = Arrays.copyOf(lits, Math.min(m, n));
+        comparators = null;
+    }
+}
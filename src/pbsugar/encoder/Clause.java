@@ -1,6 +1,5 @@
 package pbsugar.encoder;
 
-import java.util.Arrays;
 import java.util.List;
 
 public class Clause {
@@ -23,18 +22,6 @@ public class Clause {
             literals[i++] = lit;
     }
     
-    public Clause or(int... lits) {
-        int n = literals.length;
-        int[] literals1 = Arrays.copyOf(literals, n + lits.length);
-        for (int lit : lits)
-            literals1[n++] = lit;
-        return new Clause(literals1);
-    }
-
-    public Clause or(Clause c) {
-        return or(c.literals);
-    }
-    
     public boolean isUnsat() {
         return literals.length == 0;
     }
@@ -0,0 +1,54 @@
+package pbsugar.encoder;
+
+/**
+ * Estimated numbers of variables and clauses of an encoding.
+ */
+public class Cost {
+    // Objectives of comparison (NONE means encodings are chosen by the option flags)
+    public static final int NONE = 0;
+    public static final int CLAUSES = 1;
+    public static final int VARIABLES = 2;
+
+    private String encoding;
+    private long variables;
+    private long clauses;
+
+    public Cost(String encoding, long variables, long clauses) {
+        this.encoding = encoding;
+        this.variables = variables;
+        this.clauses = clauses;
+    }
+
+    public String encoding() {
+        return encoding;
+    }
+
+    public long variables() {
+        return variables;
+    }
+
+    public long clauses() {
+        return clauses;
+    }
+
+    /**
+     * Compares by the objective, and then by the other one.
+     */
+    public boolean isLessThan(Cost that, int objective) {
+        if (that == null)
+            return true;
+        if (objective == VARIABLES) {
+            if (variables != that.variables)
+                return variables < that.variables;
+            return clauses < that.clauses;
+        }
+        if (clauses != that.clauses)
+            return clauses < that.clauses;
+        return variables < that.variables;
+    }
+
+    @Override
+    public String toString() {
+        return encoding + " (" + variables + " variables " + clauses + " clauses)";
+    }
+}
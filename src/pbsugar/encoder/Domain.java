@@ -89,6 +89,21 @@ public class Domain {
         return domain.limit(limit);
     }
     
+    /**
+     * Returns the domain of sums of values in this and that.
+     */
+    public Domain plus(Domain that) {
+        Domain domain = new Domain();
+        for (int[] r1 : this.intervals) {
+            for (int[] r2 : that.intervals) {
+                Domain d = new Domain();
+                d.intervals.add(new int[] { r1[0] + r2[0], r1[1] + r2[1] });
+                domain = domain.union(d);
+            }
+        }
+        return domain;
+    }
+
     public Domain union(Domain that) {
         Domain domain = new Domain();
         Iterator<int[]> iter1 = this.intervals.iterator();
@@ -1,6 +1,7 @@
 package pbsugar.encoder;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,14 +14,21 @@ public class Encoder {
     public static int UNDEF = 0;
     public static int TRUE = Integer.MAX_VALUE;
     public static int FALSE = - TRUE;
-    private static int auxVarCount = 0;
     
     public int debug = 0;
     private Map<String,Integer> varCodeMap = null;
     private Map<String,int[]> varDimMap = null;
     private SortedMap<Integer,String> codeVarMap = null;
     private String satFileName = null;
+    private int auxVarCount = 0;
     public SatFile sat = null;
+    // Literals prefix[prefixStart..prefixSize-1] are ORed with each clause given to emitClause
+    int[] prefix = new int[64];
+    int prefixStart = 0;
+    int prefixSize = 0;
+    // Emitted clauses are collected instead of being written when not null
+    List<Clause> collected = null;
+    private int[] buffer = new int[64];
 
     public Encoder(String satFileName) {
         debug = 0;
@@ -30,11 +38,29 @@ public class Encoder {
         this.satFileName = satFileName;
     }
 
+    public Encoder(SatFile sat) {
+        this((String)null);
+        this.sat = sat;
+    }
+
     public void open() throws IOException {
-        sat = new SatFile(satFileName);
+        if (sat == null)
+            sat = new SatFile(satFileName);
         sat.open();
     }
     
+    /**
+     * Opens the SAT file again to append clauses, where the counts are read from its header
+     * when this encoder did not write it.
+     */
+    public void reopen() throws IOException {
+        if (sat == null) {
+            sat = new SatFile(satFileName);
+            sat.readHeader();
+        }
+        sat.reopen();
+    }
+
     public void close() throws IOException {
         if (sat.clausesCount == 0) {
             int code = sat.newVar();
@@ -124,17 +150,22 @@ public class Encoder {
         return name;
     }
     
-    public String toString(Clause clause) {
+    public String toString(int[] literals, int size) {
         StringBuilder sb = new StringBuilder();
         String delim = "";
-        for (int lit : clause.getLiterals()) {
+        for (int i = 0; i < size; i++) {
             sb.append(delim);
-            sb.append(decode(lit));
+            sb.append(decode(literals[i]));
             delim = " ";
         }
         return sb.toString();
     }
     
+    public String toString(Clause clause) {
+        int[] literals = clause.getLiterals();
+        return toString(literals, literals.length);
+    }
+    
     public String toString(List<Clause> clauses) {
         StringBuilder sb = new StringBuilder();
         String delim = "";
@@ -154,47 +185,86 @@ public class Encoder {
         sat.writeComment(msg);
     }
     
-    public void writeClause(Clause clause) throws IOException {
+    private void ensureBuffer(int size) {
+        if (buffer.length < size)
+            buffer = new int[Math.max(size, 2 * buffer.length)];
+    }
+
+    /**
+     * Writes the first size literals of the buffer,
+     * where FALSE literals are removed in place.
+     */
+    private void writeBuffer(int size) throws IOException {
         if (debug > 0) {
-            writeComment(toString(clause));
+            writeComment(toString(buffer, size));
         }
-        int[] literals = clause.getLiterals();
-        boolean undef = false;
-        int size = 0;
-        for (int lit : literals) {
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            int lit = buffer[i];
             if (lit == UNDEF) {
-                undef = true;
-                break;
+                // clause containing undef literal
+                return;
             } else if (lit == TRUE) {
-                size = -1;
-                break;
-            } else if (lit == FALSE) {
-            } else {
-                size++;
+                // true clause
+                return;
+            } else if (lit != FALSE) {
+                buffer[k++] = lit;
             }
         }
-        if (undef) {
-            // clause containing undef literal
-        } else if (size < 0) {
-            // true clause
-        } else if (size == 0) {
+        if (k == 0) {
             // false clause
             int code = sat.newVar();
             sat.writeClause(new int[] { code });
             sat.writeClause(new int[] { -code });
         } else {
-            int[] dimacsClause = new int[size];
-            int i = 0;
-            for (int lit : literals) {
-                if (lit == FALSE)
-                    continue;
-                dimacsClause[i++] = lit;
-            }
-            sat.writeClause(dimacsClause);
+            sat.writeClause(buffer, k);
         }
     }
+
+    public void writeClause(Clause clause) throws IOException {
+        writeClause(clause.getLiterals());
+    }
     
     public void writeClause(int... lits) throws IOException {
-        writeClause(new Clause(lits));
+        ensureBuffer(lits.length);
+        System.arraycopy(lits, 0, buffer, 0, lits.length);
+        writeBuffer(lits.length);
+    }
+
+    public int prefixSize() {
+        return prefixSize;
+    }
+
+    public void pushPrefix(int lit) {
+        if (prefixSize == prefix.length)
+            prefix = Arrays.copyOf(prefix, 2 * prefix.length);
+        prefix[prefixSize++] = lit;
+    }
+
+    public void pushPrefix(int[] lits) {
+        for (int lit : lits)
+            pushPrefix(lit);
+    }
+
+    /**
+     * Removes the literals pushed after the prefix had the given size.
+     */
+    public void popPrefix(int size) {
+        prefixSize = size;
+    }
+
+    /**
+     * Emits the clause of lits ORed with the prefix literals, which is assembled in a reusable buffer.
+     * Clauses of auxiliary variables should be written by writeClause instead.
+     */
+    public void emitClause(int... lits) throws IOException {
+        int n = prefixSize - prefixStart;
+        ensureBuffer(n + lits.length);
+        System.arraycopy(prefix, prefixStart, buffer, 0, n);
+        System.arraycopy(lits, 0, buffer, n, lits.length);
+        if (collected != null)
+            collected.add(new Clause(Arrays.copyOf(buffer, n + lits.length)));
+        else
+            writeBuffer(n + lits.length);
     }
 }
@@ -3,20 +3,22 @@ package pbsugar.encoder;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
+import pbsugar.pb.PBBounds;
 import pbsugar.pb.PBConstraint;
 import pbsugar.pb.PBLiteral;
+import pbsugar.sat.SatFile;
 
 public class PBEncoder extends Encoder {
-    public static List<Clause> TRUE_CNF = Collections.emptyList();
-    public static List<Clause> FALSE_CNF = Collections.singletonList(Clause.FALSE_CLAUSE);
-    public static int countCM = 0;
     public static int DECOMPOSE_PB = 100;
-    public static int countDecompose = 0;
+    // Maximum number of elements of a counter matrix, otherwise an adder is used
+    public static long CM_LIMIT = 1L << 24;
     // public static BigInteger BASE = new BigInteger("120");
     public static BigInteger BASE = null;
     public static boolean ENCODE_CLAUSE_PART = true;
@@ -24,8 +26,6 @@ public class PBEncoder extends Encoder {
     public static boolean SUM_CARRIES = false;
     public static boolean USE_CM_CACHE = true;
     public static int CM_CACHE_SIZE = 1000;
-    public static int countCMreused = 0;
-    private static CMcache cmCache = new CMcache(CM_CACHE_SIZE, 0.75f, true);
     private static class CMcache extends LinkedHashMap<CMkey,CM> { 
         private static final long serialVersionUID = 8752083187832081579L;
 
@@ -39,8 +39,6 @@ public class PBEncoder extends Encoder {
     }
     public static int SHARABLE_CM_LENGTH = 4;
     public static int SHARABLE_CM_CACHE_SIZE = 1000;
-    public static int countCMshared = 0;
-    private static SharableCMcache sharableCmCache = new SharableCMcache(SHARABLE_CM_CACHE_SIZE, 0.75f, true); 
     private static class SharableCMcache extends LinkedHashMap<CMkey,CM> { 
         private static final long serialVersionUID = -7551421904672362743L;
 
@@ -53,332 +51,978 @@ public class PBEncoder extends Encoder {
         }
     }
     public static boolean USE_SPARSE_CM = true;
+    public static boolean USE_CARDINALITY_CM = true;
+    public static boolean USE_AMO = true;
+    public static boolean USE_TOTALIZER_CM = true;
+    // Encodings of constraints
+    public static final String VALID = "Valid";
+    public static final String UNSAT = "Unsat";
+    public static final String DECOMPOSE = "Decomposition";
+    public static final String AS_CNF = "CNF";
+    public static final String AS_AMO = "AMO";
+    public static final String BY_BASE = "Base";
+    public static final String BY_ADDER = "Adder";
+    public static final String BY_CM = "CM";
+    // Objective of choosing encodings by estimated costs (Cost.NONE to choose by the option flags)
+    public static int COST = Cost.CLAUSES;
+    // Maximum number of terms visited when counting clauses of direct CNF
+    public static long CNF_COUNT_LIMIT = 10000;
+    // Options of this encoder copied from the static fields when it is created,
+    // so that encoders with different options can run at once
+    private int sortCoef = PBConstraint.SORT_COEF;
+    boolean orderAxioms = CM.ORDER_AXIOMS;
+    private int decomposePB = DECOMPOSE_PB;
+    private long cmLimit = CM_LIMIT;
+    private BigInteger encodingBase = BASE;
+    // Radices for encodingBase, which keep their table of primes among constraints
+    private Radix radix = null;
+    private boolean useClausePart = ENCODE_CLAUSE_PART;
+    private int cnfLiteralsSize = ENCODE_AS_CNF_LITERALS_SIZE;
+    private boolean sumCarries = SUM_CARRIES;
+    private boolean useCMCache = USE_CM_CACHE;
+    int sharableCMLength = SHARABLE_CM_LENGTH;
+    boolean useSparseCM = USE_SPARSE_CM;
+    private boolean useCardinalityCM = USE_CARDINALITY_CM;
+    private boolean useAMO = USE_AMO;
+    private boolean useTotalizerCM = USE_TOTALIZER_CM;
+    private int costObjective = COST;
+    public int countCM = 0;
+    public int countCMreused = 0;
+    public int countCMshared = 0;
+    public int countCardinality = 0;
+    public int countTotalizer = 0;
+    public int countAMO = 0;
+    public int countDecompose = 0;
+    public int countBase = 0;
+    public int countAdder = 0;
+    public Map<String,Integer> countEncodings = new LinkedHashMap<String,Integer>();
+    private CMcache cmCache = new CMcache(CM_CACHE_SIZE, 0.75f, true);
+    private SharableCMcache sharableCmCache = new SharableCMcache(SHARABLE_CM_CACHE_SIZE, 0.75f, true); 
+    private int[] pbCodes = new int[1024];
+    // Literals of objective >= v at the first value v of each run of the same literal,
+    // ending with UNDEF at the value beyond the encoded range
+    private TreeMap<Long,Integer> objectiveCodes = null;
+    // Adder of the objective (when it is too large for a counter matrix) and its constant part
+    private Adder objectiveAdder = null;
+    private BigInteger objectiveOffset = null;
     
     public PBEncoder(String satFileName) {
         super(satFileName);
     }
-    
-    public int pbLiteral(PBLiteral lit) {
-        int code = code(lit.getVariable());
-        return lit.isNegative() ? neg(code) : code;
-    }
-    
-    public List<Clause> singletonCNF(Clause clause) {
-        return Collections.singletonList(clause);
+
+    public PBEncoder(SatFile sat) {
+        super(sat);
     }
     
-    public List<Clause> or(List<Clause> cs, Clause c) {
-        List<Clause> clauses = new ArrayList<Clause>();
-        for (Clause clause : cs)
-            clauses.add(clause.or(c));
-        return clauses;
+    public boolean isPBVar(int v) {
+        return v < pbCodes.length && pbCodes[v] != 0;
     }
-    
-    public List<Clause> and(List<Clause> cs, Clause c) {
-        if (c.isUnsat())
-            return FALSE_CNF;
-        List<Clause> clauses = new ArrayList<Clause>(cs);
-        clauses.add(c);
-        return clauses;
+
+    /**
+     * Registers the PB variable v (numbered by PBLiteral) as a SAT variable.
+     */
+    public int newPBVar(int v) {
+        int code = newVar(PBLiteral.name(v));
+        if (v >= pbCodes.length)
+            pbCodes = Arrays.copyOf(pbCodes, Math.max(v + 1, 2 * pbCodes.length));
+        pbCodes[v] = code;
+        return code;
     }
 
-    public List<Clause> or(List<Clause> cs1, List<Clause> cs2) {
-        List<Clause> clauses = new ArrayList<Clause>();
-        if (cs1.size() > 0 && cs2.size() > 0) {
-            for (Clause c1 : cs1)
-                for (Clause c2 : cs2)
-                    clauses.add(c1.or(c2));
-        }
-        return clauses;
+    /**
+     * Registers the PB variable v already encoded as the SAT variable code (given by a map file).
+     */
+    public void setPBVar(int v, int code) {
+        if (v >= pbCodes.length)
+            pbCodes = Arrays.copyOf(pbCodes, Math.max(v + 1, 2 * pbCodes.length));
+        pbCodes[v] = code;
     }
-    
-    public List<Clause> and(List<Clause> cs1, List<Clause> cs2) {
-        List<Clause> clauses = new ArrayList<Clause>(cs1);
-        clauses.addAll(cs2);
-        return clauses;
+
+    public int pbLiteral(int lit) {
+        int code = pbCodes[PBLiteral.getVariable(lit)];
+        return PBLiteral.isNegative(lit) ? neg(code) : code;
     }
     
-    private List<Clause> encodeAsCNF(PBConstraint pb, int i, BigInteger lhs) {
-        boolean valid = false;
-        boolean unsat = false;
-        BigInteger lb = lhs;
-        BigInteger ub = lhs;
-        for (int j = i; j <= pb.size(); j++)
-            ub = ub.add(pb.a(j));
-        if (pb.cmp().equals(PBConstraint.LE)) {
-            if (ub.compareTo(pb.b()) <= 0)
-                valid = true;
-            if (lb.compareTo(pb.b()) > 0)
-                unsat = true;
-        } else if (pb.cmp().equals(PBConstraint.GE)) {
-            if (lb.compareTo(pb.b()) >= 0)
-                valid = true;
-            if (ub.compareTo(pb.b()) < 0)
-                unsat = true;
-        } else if (pb.cmp().equals(PBConstraint.EQ)) {
-            if (lb.compareTo(pb.b()) == 0 && ub.compareTo(pb.b()) == 0)
-                valid = true;
-            if (lb.compareTo(pb.b()) > 0 || ub.compareTo(pb.b()) < 0)
-                unsat = true;
-        } else {
-            if (lb.compareTo(pb.b()) > 0 || ub.compareTo(pb.b()) < 0)
-                valid = true;
-            if (lb.compareTo(pb.b()) == 0 && ub.compareTo(pb.b()) == 0)
-                unsat = true;
+    /**
+     * Emits clauses of pb (GE) by Shannon expansion on the first term,
+     * where pb <==> (pb with x1=1) and (x1 or pb with x1=0) since pb is monotone.
+     */
+    private void encodeGeAsCNF(PBConstraint pb) throws IOException {
+        if (pb.isUnsat()) {
+            emitClause();
+            return;
         }
-        if (valid)
-            return TRUE_CNF;
-        if (unsat)
-            return FALSE_CNF;
-        List<Clause> clauses1 = or(encodeAsCNF(pb, i+1, lhs), new Clause(pbLiteral(pb.x(i))));
-        List<Clause> clauses2 = or(encodeAsCNF(pb, i+1, lhs.add(pb.a(i))), new Clause(pbLiteral(pb.x(i).negate())));
-        return and(clauses1, clauses2);
+        if (pb.isValid())
+            return;
+        encodeGeAsCNF(pb.fix(1, 1));
+        int size = prefixSize();
+        pushPrefix(pbLiteral(pb.x(1)));
+        encodeGeAsCNF(pb.fix(1, 0));
+        popPrefix(size);
     }
 
-    private List<Clause> encodeGeAsCNF(PBConstraint pb) {
-        if (pb.isUnsat())
-            return FALSE_CNF;
+    /**
+     * Emits clauses of pb (NE) by Shannon expansion on the first term.
+     */
+    private void encodeNeAsCNF(PBConstraint pb) throws IOException {
+        if (pb.isUnsat()) {
+            emitClause();
+            return;
+        }
         if (pb.isValid())
-            return TRUE_CNF;
-        List<BigInteger> as = pb.as().subList(1, pb.size());
-        List<PBLiteral> xs = pb.xs().subList(1, pb.size());
-        String cmp = pb.cmp();
-        BigInteger b = pb.b();
-        PBConstraint pb1 = new PBConstraint(as, xs, cmp, b.subtract(pb.a(1)));
-        List<Clause> clauses1 = encodeGeAsCNF(pb1);
-        Clause clause = new Clause(pbLiteral(pb.x(1)));
-        PBConstraint pb2 = new PBConstraint(as, xs, cmp, b);
-        List<Clause> clauses2 = or(encodeGeAsCNF(pb2), clause);
-        return and(clauses1, clauses2);
+            return;
+        int size = prefixSize();
+        pushPrefix(pbLiteral(PBLiteral.negate(pb.x(1))));
+        encodeNeAsCNF(pb.fix(1, 1));
+        popPrefix(size);
+        pushPrefix(pbLiteral(pb.x(1)));
+        encodeNeAsCNF(pb.fix(1, 0));
+        popPrefix(size);
     }
 
-    public List<Clause> encodeAsCNF(PBConstraint pb) {
+    public void encodeAsCNF(PBConstraint pb) throws IOException {
         if (pb.cmp().equals(PBConstraint.LE)) {
-            BigInteger b = pb.ubLHS().subtract(pb.b());
-            List<PBLiteral> xs = new ArrayList<PBLiteral>(pb.xs());
-            for (int i = 0; i < xs.size(); i++)
-                xs.set(i, xs.get(i).negate());
-            PBConstraint pb1 = new PBConstraint(pb.as(), xs, PBConstraint.GE, b);
-            return encodeGeAsCNF(pb1);
+            PBConstraint pb1 = pb.complement();
+            encodeGeAsCNF(pb1);
         } else if (pb.cmp().equals(PBConstraint.GE)) {
-            return encodeGeAsCNF(pb);
+            encodeGeAsCNF(pb);
         } else if (pb.cmp().equals(PBConstraint.EQ)) {
-            PBConstraint pb1 = new PBConstraint(pb.as(), pb.xs(), PBConstraint.LE, pb.b());
-            PBConstraint pb2 = new PBConstraint(pb.as(), pb.xs(), PBConstraint.GE, pb.b());
-            return and(encodeAsCNF(pb1), encodeAsCNF(pb2));
+            encodeAsCNF(pb.setCmp(PBConstraint.LE));
+            encodeAsCNF(pb.setCmp(PBConstraint.GE));
         } else { // pb.cmp().equals(PBConstraint.NE)
-            PBConstraint pb1 = new PBConstraint(pb.as(), pb.xs(), PBConstraint.LE, pb.b().subtract(BigInteger.ONE));
-            PBConstraint pb2 = new PBConstraint(pb.as(), pb.xs(), PBConstraint.GE, pb.b().add(BigInteger.ONE));
-            return or(encodeAsCNF(pb1), encodeAsCNF(pb2));
+            encodeNeAsCNF(pb);
         }
     }
 
-    private int[] asInt(PBConstraint pb) {
-        int[] as = new int[pb.as().size()];
+    /**
+     * Coefficients are limited to m when their sum does not fit in int,
+     * since sums of m or more are not distinguished.
+     */
+    private int[] asInt(PBConstraint pb, int m) {
+        long limit = pb.longUbLHS() > Integer.MAX_VALUE ? m : Integer.MAX_VALUE;
+        int[] as = new int[pb.size()];
         for (int i = 0; i < as.length; i++)
-            as[i] = pb.a(i+1).intValue();
+            as[i] = (int)Math.min(pb.longA(i+1), limit);
         return as;
     }
     
     private int[] xsInt(PBConstraint pb) {
-        int[] xs = new int[pb.xs().size()];
+        int[] xs = new int[pb.size()];
         for (int i = 0; i < xs.length; i++)
             xs[i] = pbLiteral(pb.x(i+1));
         return xs;
     }
     
     private CM encodeByCounterMatrix(PBConstraint pb) throws IOException {
-        int[] as = asInt(pb);
+        assert(! pb.isBig() && ! isLargeCM(pb.longAs(), pb.longB() + 1));
+        int m = (int)pb.longB() + 1;
+        int[] as = asInt(pb, m);
         int[] xs = xsInt(pb);
-        int m = pb.b().intValue() + 1;
+        return encodeByCounterMatrix(as, xs, m);
+    }
+
+    /**
+     * Returns true when the counter matrix of sum(as*xs) up to m exceeds CM_LIMIT elements,
+     * or its sums (with coefficients limited to m) do not fit in int.
+     */
+    private boolean isLargeCM(long[] as, long m) {
+        if (m > Integer.MAX_VALUE)
+            return true;
+        long sum = 0;
+        long size = 0;
+        for (long a : as) {
+            sum += Math.min(a, m);
+            if (sum > Integer.MAX_VALUE)
+                return true;
+            size += Math.min(sum, m);
+            if (size > cmLimit)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isLarge(PBConstraint pb) {
+        return pb.isBig() || isLargeCM(pb.longAs(), pb.longB() + 1);
+    }
+
+    private boolean isCardinality(int[] as) {
+        for (int a : as) {
+            if (a != 1)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns CardinalityCM (for cardinality constraints) or TotalizerCM (for other ones)
+     * instead of the SimpleCM z when its estimated cost is less.
+     * Costs are compared by clauses when COST is Cost.NONE.
+     */
+    private CM chooseCM(CM z) {
+        int objective = costObjective == Cost.NONE ? Cost.CLAUSES : costObjective;
+        int[] as = z.as();
+        int[] xs = z.xs();
+        int m = z.m();
+        if (useCardinalityCM && isCardinality(as)) {
+            CM z1 = new CardinalityCM(as, xs, m, this);
+            if (z1.cost().isLessThan(z.cost(), objective))
+                z = z1;
+        }
+        if (useTotalizerCM && useSparseCM && ! isCardinality(as)) {
+            CM z1 = new TotalizerCM(as, xs, m, this);
+            if (z1.cost().isLessThan(z.cost(), objective))
+                z = z1;
+        }
+        return z;
+    }
+
+    private CM cachedCM(CM z) {
+        if (! useCMCache)
+            return null;
+        CM z1 = cmCache.get(z.key());
+        return z1 != null && z.m() <= z1.m() ? z1 : null;
+    }
+
+    private boolean isSharable(CM z) {
+        return sharableCMLength > 0 && z.n() >= sharableCMLength && z instanceof SimpleCM;
+    }
+
+    /**
+     * Returns the cached CM whose first rows can be shared with z, or null when there is none.
+     */
+    private CM sharableCM(CM z) {
+        if (! isSharable(z))
+            return null;
+        CM z1 = sharableCmCache.get(z.sharableKey());
+        return z1 != null && (! useSparseCM || z.m() <= z1.m()) ? z1 : null;
+    }
+
+    /**
+     * Coefficients as are positive, and xs are SAT literals.
+     */
+    CM encodeByCounterMatrix(int[] as, int[] xs, int m) throws IOException {
         CM z = new SimpleCM(as, xs, m, this);
-        if (USE_CM_CACHE) {
-            CM z1 = cmCache.get(z.key());
-            if (z1 != null && m <= z1.m()) {
-                countCMreused++;
-                if (debug >= 1)
-                    writeComment("# CM reused");
-                return z1;
-            }
+        CM z1 = cachedCM(z);
+        if (z1 != null) {
+            countCMreused++;
+            if (debug >= 1)
+                writeComment("# CM reused");
+            return z1;
         }
-        if (SHARABLE_CM_LENGTH > 0 && z.n() >= SHARABLE_CM_LENGTH) {
-            CM z1 = sharableCmCache.get(z.sharableKey()); 
-            if (z1 != null && (! PBEncoder.USE_SPARSE_CM || m <= z1.m())) {
-                countCMshared++;
-                if (debug >= 1)
-                    writeComment("# CM shared");
-                z = new SharedCM(as, xs, m, z1, this);
-            } else {
-                sharableCmCache.put(z.sharableKey(), z);
-            }
+        z = chooseCM(z);
+        if (z instanceof CardinalityCM)
+            countCardinality++;
+        else if (z instanceof TotalizerCM)
+            countTotalizer++;
+        z1 = sharableCM(z);
+        if (z1 != null) {
+            countCMshared++;
+            if (debug >= 1)
+                writeComment("# CM shared");
+            z = new SharedCM(as, xs, m, z1, this);
+        } else if (isSharable(z)) {
+            sharableCmCache.put(z.sharableKey(), z);
         }
         if (debug >= 1)
             writeComment("# CM : " + z.toString());
         countCM++;
         z.encode();
-        if (USE_CM_CACHE)
+        if (useCMCache)
             cmCache.put(z.key(), z);
         return z;
     }
     
-    public PBConstraint encodeClausePart(PBConstraint pb, List<Integer> literals, List<Clause> clauses) throws IOException {
+    /**
+     * Fixes the largest remaining terms making pb unsat (or valid) when they are 0 or 1,
+     * and returns their indices in the order of the normalized constraint.
+     * Bounds are not changed until all such terms are found.
+     */
+    private int[] fixPrefix(PBBounds bounds, boolean unsat) {
+        int m = 0;
+        int[] is = new int[bounds.remaining()];
+        int[] vs = new int[is.length];
+        while (m < is.length) {
+            int i = bounds.term(m);
+            if (unsat ? bounds.isUnsatWhen(i, 0) : bounds.isValidWhen(i, 0)) {
+                vs[m] = 1;
+            } else if (unsat ? bounds.isUnsatWhen(i, 1) : bounds.isValidWhen(i, 1)) {
+                vs[m] = 0;
+            } else {
+                break;
+            }
+            is[m++] = i;
+        }
+        for (int k = 0; k < m; k++)
+            bounds.fix(is[k], vs[k]);
+        is = Arrays.copyOf(is, m);
+        Arrays.sort(is);
+        return m <= 1 ? is : bounds.sort(is);
+    }
+
+    /**
+     * Returns the assignment which makes the i-th term fixed.
+     */
+    private String toString(PBBounds bounds, int i) {
+        int x = bounds.literal(i);
+        return PBLiteral.toString(x) + (x == bounds.fixedLiteral(i) ? "=0" : "=1");
+    }
+
+    /**
+     * Literals fixed by pb are emitted as clauses, and literals making pb valid
+     * are pushed to the prefix (the caller pops them after encoding the remaining constraint).
+     * Terms are fixed with PBBounds in a single pass in the descending order of coefficients.
+     */
+    public PBConstraint encodeClausePart(PBConstraint pb) throws IOException {
+        if (pb.isBig())
+            return encodeClausePartBig(pb);
+        PBBounds bounds = new PBBounds(pb, sortCoef);
+        boolean change = true;
+        boolean fixed = false;
+        while (change && ! bounds.isValid() && ! bounds.isUnsat()) {
+            change = false;
+            fixed = true;
+            for (int i : fixPrefix(bounds, true)) {
+                if (debug >= 2)
+                    writeComment("# Unsat when "+ toString(bounds, i));
+                change = true;
+                emitClause(pbLiteral(bounds.fixedLiteral(i)));
+            }
+            bounds.normalize();
+            if (debug >= 2)
+                writeComment("# Remaining PB "+ bounds.toConstraint().toString());
+            for (int i : fixPrefix(bounds, false)) {
+                if (debug >= 2)
+                    writeComment("# Valid when "+ toString(bounds, i));
+                change = true;
+                pushPrefix(pbLiteral(PBLiteral.negate(bounds.fixedLiteral(i))));
+            }
+            bounds.normalize();
+            if (debug >= 2)
+                writeComment("# Remaining PB "+ bounds.toConstraint().toString());
+        }
+        if (fixed)
+            pb = bounds.toConstraint();
+        return pb;
+    }
+
+    private PBConstraint encodeClausePartBig(PBConstraint pb) throws IOException {
         boolean change = true;
         while (change && ! pb.isValid() && ! pb.isUnsat()) {
             change = false;
-            List<BigInteger> as = new ArrayList<BigInteger>();
-            List<PBLiteral> xs = new ArrayList<PBLiteral>();
-            BigInteger b = pb.b();
+            int[] values = new int[pb.size()];
             for (int i = 1; i <= pb.size(); i++) {
+                values[i-1] = -1;
                 if (pb.isUnsatWhen(i, 0)) {
                     if (debug >= 2)
-                        writeComment("# Unsat when "+ pb.x(i) + "=0");
+                        writeComment("# Unsat when "+ PBLiteral.toString(pb.x(i)) + "=0");
                     change = true;
-                    clauses.add((new Clause(literals)).or(pbLiteral(pb.x(i))));
-                    b = b.subtract(pb.a(i));
+                    emitClause(pbLiteral(pb.x(i)));
+                    values[i-1] = 1;
                 } else if (pb.isUnsatWhen(i, 1)) {
                     if (debug >= 2)
-                        writeComment("# Unsat when "+ pb.x(i) + "=1");
+                        writeComment("# Unsat when "+ PBLiteral.toString(pb.x(i)) + "=1");
                     change = true;
-                    clauses.add((new Clause(literals)).or(pbLiteral(pb.x(i).negate())));
-                } else {
-                    as.add(pb.a(i));
-                    xs.add(pb.x(i));
+                    emitClause(pbLiteral(PBLiteral.negate(pb.x(i))));
+                    values[i-1] = 0;
                 }
             }
-            pb = new PBConstraint(as, xs, pb.cmp(), b);
-            pb.normalize();
+            pb = pb.fix(values);
+            pb.normalize(sortCoef);
             if (debug >= 2)
                 writeComment("# Remaining PB "+ pb.toString());
-            as = new ArrayList<BigInteger>();
-            xs = new ArrayList<PBLiteral>();
-            b = pb.b();
+            values = new int[pb.size()];
             for (int i = 1; i <= pb.size(); i++) {
+                values[i-1] = -1;
                 if (pb.isValidWhen(i, 0)) {
                     if (debug >= 2)
-                        writeComment("# Valid when "+ pb.x(i) + "=0");
+                        writeComment("# Valid when "+ PBLiteral.toString(pb.x(i)) + "=0");
                     change = true;
-                    literals.add(pbLiteral(pb.x(i).negate()));                
-                    b = b.subtract(pb.a(i));
+                    pushPrefix(pbLiteral(PBLiteral.negate(pb.x(i))));
+                    values[i-1] = 1;
                 } else if (pb.isValidWhen(i, 1)) {
                     if (debug >= 2)
-                        writeComment("# Valid when "+ pb.x(i) + "=1");
+                        writeComment("# Valid when "+ PBLiteral.toString(pb.x(i)) + "=1");
                     change = true;
-                    literals.add(pbLiteral(pb.x(i)));                
-                } else {
-                    as.add(pb.a(i));
-                    xs.add(pb.x(i));
+                    pushPrefix(pbLiteral(pb.x(i)));
+                    values[i-1] = 0;
                 }
             }
-            pb = new PBConstraint(as, xs, pb.cmp(), b);
-            pb.normalize();
+            pb = pb.fix(values);
+            pb.normalize(sortCoef);
             if (debug >= 2)
                 writeComment("# Remaining PB "+ pb.toString());
         }
         return pb;
     }
 
-    /*
-    private List<PBLiteral> list2literals(List<String> list) {
-        List<PBLiteral> literals = new ArrayList<PBLiteral>();
-        for (String x : list)
-            literals.add(new PBLiteral(x));
-        return literals;
+    /**
+     * Returns a SAT literal equivalent to sum(as*xs) >= v by digit-wise counters,
+     * where the i-th digit is in radix base[i].
+     * The last digit is not bounded unless its counter matrix is too large (see isLargeCM()),
+     * in which case it is encoded by an adder.
+     * With a = a1*p + a0 for each coefficient and v = v1*p + v0,
+     * sum(a*x) >= v <==> sum(a1*x) + c >= v1 + 1
+     * where c = floor((sum(a0*x) + p - v0)/p) is given by carries c(t) = (sum(a0*x) >= (t-1)*p + v0)
+     * of a counter over the lowest digits.
+     */
+    private int encodeBaseDigit(long[] as, int[] xs, long v, int[] base, int level) throws IOException {
+        int n = as.length;
+        long sum = 0;
+        for (long a : as)
+            sum += a;
+        if (v <= 0)
+            return TRUE;
+        if (sum < v)
+            return FALSE;
+        if (level == base.length || v < base[level]) {
+            if (isLargeCM(as, v + 1)) {
+                BigInteger[] as1 = new BigInteger[n];
+                for (int i = 0; i < n; i++)
+                    as1[i] = BigInteger.valueOf(as[i]);
+                return encodeByAdder(as1, xs).ge(BigInteger.valueOf(v));
+            }
+            int[] as1 = new int[n];
+            for (int i = 0; i < n; i++)
+                as1[i] = (int)Math.min(as[i], v);
+            CM z = encodeByCounterMatrix(as1, xs, (int)v + 1);
+            return z.elem(n, (int)v);
+        }
+        int p = base[level];
+        long v0 = v % p;
+        long v1 = v / p;
+        int[] as0 = new int[n];
+        int[] xs0 = new int[n];
+        long[] as1 = new long[n];
+        int[] xs1 = new int[n];
+        int n0 = 0;
+        int n1 = 0;
+        long sum0 = 0;
+        for (int i = 0; i < n; i++) {
+            if (as[i] % p > 0) {
+                as0[n0] = (int)(as[i] % p);
+                xs0[n0++] = xs[i];
+                sum0 += as[i] % p;
+            }
+            if (as[i] / p > 0) {
+                as1[n1] = as[i] / p;
+                xs1[n1++] = xs[i];
+            }
+        }
+        int carries = (int)((sum0 + p - v0) / p);
+        CM z = null;
+        if (carries > 1 || (carries == 1 && v0 > 0)) {
+            int m = (int)((carries - 1) * (long)p + v0) + 1;
+            z = encodeByCounterMatrix(Arrays.copyOf(as0, n0), Arrays.copyOf(xs0, n0), m);
+        }
+        long[] as2 = Arrays.copyOf(as1, n1 + carries);
+        int[] xs2 = Arrays.copyOf(xs1, n1 + carries);
+        long v2 = v1 + 1;
+        for (int t = 1; t <= carries; t++) {
+            int j = (int)((t - 1) * (long)p + v0);
+            if (j <= 0) {
+                v2--;
+            } else {
+                as2[n1] = 1;
+                xs2[n1++] = z.elem(n0, j);
+            }
+        }
+        return encodeBaseDigit(Arrays.copyOf(as2, n1), Arrays.copyOf(xs2, n1), v2, base, level + 1);
     }
-    */
-    
-    private List<Clause> encodePB_(PBConstraint pb) throws IOException {
-        BigInteger base = BASE;
-        if (base == null || base.compareTo(BigInteger.ONE) <= 0 || pb.b().compareTo(base) < 0) {
+
+    private void encodeByBase(PBConstraint pb) throws IOException {
+        long[] as = pb.longAs();
+        int[] xs = xsInt(pb);
+        long b = pb.longB();
+        if (radix == null)
+            radix = new Radix(encodingBase.min(BigInteger.valueOf(Integer.MAX_VALUE)).intValue(), sumCarries);
+        int[] base = radix.optimize(as);
+        if (debug >= 1)
+            writeComment("# Base " + Arrays.toString(base) + " for " + pb.toString());
+        countBase++;
+        String cmp = pb.cmp();
+        if (cmp.equals(PBConstraint.LE)) {
+            emitClause(neg(encodeBaseDigit(as, xs, b + 1, base, 0)));
+        } else if (cmp.equals(PBConstraint.GE)) {
+            emitClause(encodeBaseDigit(as, xs, b, base, 0));
+        } else if (cmp.equals(PBConstraint.EQ)) {
+            emitClause(encodeBaseDigit(as, xs, b, base, 0));
+            emitClause(neg(encodeBaseDigit(as, xs, b + 1, base, 0)));
+        } else { // cmp.equals(PBConstraint.NE)
+            int lit1 = encodeBaseDigit(as, xs, b, base, 0);
+            int lit2 = encodeBaseDigit(as, xs, b + 1, base, 0);
+            emitClause(neg(lit1), lit2);
+        }
+    }
+
+    /**
+     * Coefficients as are positive, and xs are SAT literals.
+     */
+    private Adder encodeByAdder(BigInteger[] as, int[] xs) throws IOException {
+        Adder adder = new Adder(as, xs, this);
+        if (debug >= 1)
+            writeComment("# Adder : " + adder.toString());
+        countAdder++;
+        adder.encode();
+        return adder;
+    }
+
+    private void encodeByAdder(PBConstraint pb) throws IOException {
+        Adder adder = encodeByAdder(pb.as().toArray(new BigInteger[0]), xsInt(pb));
+        BigInteger b = pb.b();
+        BigInteger b1 = b.add(BigInteger.ONE);
+        String cmp = pb.cmp();
+        if (cmp.equals(PBConstraint.LE)) {
+            emitClause(neg(adder.ge(b1)));
+        } else if (cmp.equals(PBConstraint.GE)) {
+            emitClause(adder.ge(b));
+        } else if (cmp.equals(PBConstraint.EQ)) {
+            emitClause(adder.ge(b));
+            emitClause(neg(adder.ge(b1)));
+        } else { // cmp.equals(PBConstraint.NE)
+            int lit1 = adder.ge(b);
+            int lit2 = adder.ge(b1);
+            emitClause(neg(lit1), lit2);
+        }
+    }
+
+    private boolean useBase(PBConstraint pb) {
+        BigInteger base = encodingBase;
+        return base != null && base.compareTo(BigInteger.ONE) > 0 && pb.b().compareTo(base) >= 0 && ! pb.isBig();
+    }
+
+    private void encodePB_(PBConstraint pb, String encoding) throws IOException {
+        if (encoding.equals(BY_BASE)) {
+            encodeByBase(pb);
+        } else if (encoding.equals(BY_ADDER)) {
+            encodeByAdder(pb);
+        } else {
             if (debug >= 1)
                 writeComment("# CM for " + pb.toString());
             CM z = encodeByCounterMatrix(pb);
-            List<Clause> clauses = z.encodeCmp(pb.cmp(), pb.b().intValue());
-            if (debug >= 1)
-                writeComment("# CM result " + toString(clauses));
-            return clauses;
-        } else {
-            // TODO
-            throw new IllegalArgumentException("Not implemented");
+            z.encodeCmp(pb.cmp(), (int)pb.longB());
         }
     }
     
-    private List<Clause> decomposePB(PBConstraint pb) throws IOException {
-        BigInteger base = new BigInteger("2");
-        for (int ibase = base.intValue(); ibase <= DECOMPOSE_PB; ibase++) {
-            PBConstraint[] pbs = pb.divideAndRemainder(base);
-            PBConstraint pbH = pbs[0]; 
-            PBConstraint pbL = pbs[1]; 
-            PBConstraint pbH1 = null;
-            if (pb.cmp().equals(PBConstraint.LE)) {
-                BigInteger b = pbH.b().subtract(BigInteger.ONE);
-                pbH1 = new PBConstraint(pbH.as(), pbH.xs(), pbH.cmp(), b);
-                pbH1.normalize();
-            } else if (pb.cmp().equals(PBConstraint.GE)) {
-                BigInteger b = pbH.b().add(BigInteger.ONE);
-                pbH1 = new PBConstraint(pbH.as(), pbH.xs(), pbH.cmp(), b);
-                pbH1.normalize();
-            } else { // pb.cmp().equals(PBConstraint.EQ)
-            }
-            pbH.normalize();
-            pbL.normalize();
-            if (pbH.size() == 0)
+    /**
+     * Returns true when pb is sum(xs) <= 1 or sum(xs) = 1.
+     */
+    private boolean isAtMostOne(PBConstraint pb) {
+        if (pb.isBig() || pb.longB() != 1)
+            return false;
+        if (! pb.cmp().equals(PBConstraint.LE) && ! pb.cmp().equals(PBConstraint.EQ))
+            return false;
+        for (long a : pb.longAs()) {
+            if (a != 1)
+                return false;
+        }
+        return true;
+    }
+
+    private void encodeAtMostOne(PBConstraint pb) throws IOException {
+        int[] xs = xsInt(pb);
+        if (debug >= 1)
+            writeComment("# AMO for " + pb.toString());
+        countAMO++;
+        (new AtMostOne(xs, this)).encode();
+        if (pb.cmp().equals(PBConstraint.EQ))
+            emitClause(xs);
+    }
+
+    /**
+     * Returns {pbH, pbH1, pbL} for the base with pb <==> pbH and (pbH1 or pbL),
+     * or {pbH, null, pbL} with pb <==> pbH and pbL for EQ,
+     * or null when pb is not decomposable with the base.
+     */
+    private PBConstraint[] decompose(PBConstraint pb, long base) {
+        PBConstraint[] pbs = pb.divideAndRemainder(base);
+        PBConstraint pbH = pbs[0]; 
+        PBConstraint pbL = pbs[1]; 
+        // Remainders must not carry (checked before pbL is divided by its GCD)
+        if (pbH.size() == 0 || pbL.isBig() || pbL.longUbLHS() >= base)
+            return null;
+        PBConstraint pbH1 = null;
+        if (pb.cmp().equals(PBConstraint.LE)) {
+            pbH1 = pbH.addB(-1);
+            pbH1.normalize(sortCoef);
+        } else if (pb.cmp().equals(PBConstraint.GE)) {
+            pbH1 = pbH.addB(1);
+            pbH1.normalize(sortCoef);
+        } else { // pb.cmp().equals(PBConstraint.EQ)
+        }
+        pbH.normalize(sortCoef);
+        pbL.normalize(sortCoef);
+        return new PBConstraint[] { pbH, pbH1, pbL };
+    }
+
+    /**
+     * Returns the smallest base (up to DECOMPOSE_PB) with which pb is decomposable, or 0.
+     */
+    private long decomposableBase(PBConstraint pb) {
+        for (long base = 2; base <= decomposePB; base++) {
+            if (pb.divideAndRemainder(base)[0].size() == 0)
                 break;
-            if (pbL.ubLHS().compareTo(base) < 0) {
-                writeComment("Found decomposable PB with " + base + " for " + pb);
-                countDecompose++;
-                if (pb.cmp().equals(PBConstraint.EQ))
-                    return and(encodePB(pbH), encodePB(pbL));
-                if (pbL.isValid())
-                    return encodePB(pbH);
-                if (pbL.isUnsat())
-                    return encodePB(pbH1);
-                return and(encodePB(pbH), or(encodePB(pbH1), encodePB(pbL)));
-            }
-            base = base.add(BigInteger.ONE);
+            if (decompose(pb, base) != null)
+                return base;
         }
-        return null;
+        return 0;
     }
-    
-    public List<Clause> encodePB(PBConstraint pb) throws IOException {
+
+    /**
+     * Returns the clauses emitted by encodePB(pb) without the prefix literals,
+     * while clauses of auxiliary variables are written as usual.
+     */
+    private List<Clause> collectPB(PBConstraint pb) throws IOException {
+        List<Clause> collected0 = collected;
+        int prefixStart0 = prefixStart;
+        collected = new ArrayList<Clause>();
+        prefixStart = prefixSize;
+        try {
+            encodePB(pb);
+            return collected;
+        } finally {
+            collected = collected0;
+            prefixStart = prefixStart0;
+        }
+    }
+
+    /**
+     * Emits clauses of pb1 or pb2, where only their own clauses are kept in memory.
+     */
+    private void encodeOr(PBConstraint pb1, PBConstraint pb2) throws IOException {
+        List<Clause> clauses1 = collectPB(pb1);
+        List<Clause> clauses2 = collectPB(pb2);
+        int size = prefixSize();
+        for (Clause c1 : clauses1) {
+            pushPrefix(c1.getLiterals());
+            for (Clause c2 : clauses2)
+                emitClause(c2.getLiterals());
+            popPrefix(size);
+        }
+    }
+
+    private void decomposePB(PBConstraint pb, long base) throws IOException {
+        PBConstraint[] pbs = decompose(pb, base);
+        PBConstraint pbH = pbs[0]; 
+        PBConstraint pbH1 = pbs[1]; 
+        PBConstraint pbL = pbs[2]; 
+        writeComment("Found decomposable PB with " + base + " for " + pb);
+        countDecompose++;
+        if (pb.cmp().equals(PBConstraint.EQ)) {
+            encodePB(pbH);
+            encodePB(pbL);
+        } else if (pbL.isValid()) {
+            encodePB(pbH);
+        } else if (pbL.isUnsat()) {
+            encodePB(pbH1);
+        } else {
+            encodePB(pbH);
+            encodeOr(pbH1, pbL);
+        }
+    }
+
+    /**
+     * Returns the number of clauses of encodeAsCNF(pb),
+     * or limit + 1 when it exceeds limit or more than CNF_COUNT_LIMIT terms are visited.
+     */
+    private long countAsCNF(PBConstraint pb, long limit, long[] terms) {
+        if (pb.cmp().equals(PBConstraint.LE)) {
+            return countExpansion(pb.complement(), limit, terms);
+        } else if (pb.cmp().equals(PBConstraint.GE)) {
+            return countExpansion(pb, limit, terms);
+        } else if (pb.cmp().equals(PBConstraint.EQ)) {
+            long c1 = countAsCNF(pb.setCmp(PBConstraint.LE), limit, terms);
+            if (c1 > limit)
+                return limit + 1;
+            long c2 = countAsCNF(pb.setCmp(PBConstraint.GE), limit - c1, terms);
+            return c2 > limit - c1 ? limit + 1 : c1 + c2;
+        } else { // pb.cmp().equals(PBConstraint.NE)
+            return countExpansion(pb, limit, terms);
+        }
+    }
+
+    /**
+     * Both encodeGeAsCNF() and encodeNeAsCNF() emit clauses of the two subconstraints.
+     */
+    private long countExpansion(PBConstraint pb, long limit, long[] terms) {
+        if (pb.isUnsat())
+            return 1;
+        if (pb.isValid())
+            return 0;
+        terms[0] -= pb.size();
+        if (limit <= 0 || terms[0] < 0)
+            return limit + 1;
+        long c1 = countExpansion(pb.fix(1, 1), limit, terms);
+        if (c1 > limit)
+            return limit + 1;
+        long c2 = countExpansion(pb.fix(1, 0), limit - c1, terms);
+        return c2 > limit - c1 ? limit + 1 : c1 + c2;
+    }
+
+    /**
+     * Returns the number of result clauses (multiplied when combined by or)
+     * among the estimated clauses.
+     */
+    private long results(Cost cost) {
+        String encoding = cost.encoding();
+        if (encoding.equals(AS_CNF) || encoding.equals(AS_AMO) || encoding.equals(DECOMPOSE) || encoding.equals(UNSAT))
+            return cost.clauses();
+        return Math.min(cost.clauses(), 1);
+    }
+
+    /**
+     * The adder has about (bits - width) full adders of 2 variables and 14 clauses,
+     * where bits is the number of 1 bits of coefficients and width is that of the sum,
+     * and its comparator has a gate of 3 clauses for each bit of the sum.
+     */
+    private Cost estimateByAdder(PBConstraint pb, String encoding) {
+        long bits = 0;
+        for (BigInteger a : pb.as())
+            bits += a.bitCount();
+        long width = pb.ubLHS().bitLength();
+        long adders = Math.max(bits - width, 0);
+        return new Cost(encoding, 2 * adders + width, 14 * adders + 3 * width + 1);
+    }
+
+    /**
+     * A counter matrix in the cache costs nothing.
+     */
+    private Cost estimateByCounterMatrix(PBConstraint pb) {
+        int m = (int)pb.longB() + 1;
+        CM z = new SimpleCM(asInt(pb, m), xsInt(pb), m, this);
+        if (cachedCM(z) != null)
+            return new Cost(BY_CM, 0, 1);
+        z = chooseCM(z);
+        CM z1 = sharableCM(z);
+        if (z1 != null)
+            z = new SharedCM(z.as(), z.xs(), m, z1, this);
+        Cost cost = z.cost();
+        return new Cost(BY_CM, cost.variables(), cost.clauses() + 1);
+    }
+
+    /**
+     * Clauses of pbH1 and pbL are multiplied by or, except the ones written by their encodings.
+     * pbH1 reuses the counter matrix of pbH when they have the same left-hand side.
+     */
+    private Cost estimateByDecomposition(PBConstraint pb, long base) {
+        PBConstraint[] pbs = decompose(pb, base);
+        Cost h = estimate(pbs[0]);
+        Cost l = estimate(pbs[2]);
+        if (pb.cmp().equals(PBConstraint.EQ))
+            return new Cost(DECOMPOSE, h.variables() + l.variables(), h.clauses() + l.clauses());
+        if (pbs[2].isValid())
+            return new Cost(DECOMPOSE, h.variables(), h.clauses());
+        Cost h1 = estimate(pbs[1]);
+        if (pbs[2].isUnsat())
+            return new Cost(DECOMPOSE, h1.variables(), h1.clauses());
+        long variables = h.variables() + h1.variables() + l.variables();
+        long clauses = h.clauses() + h1.clauses() - results(h1) + l.clauses() - results(l) + results(h1) * results(l);
+        if (h.encoding().equals(BY_CM) && h1.encoding().equals(BY_CM)
+                && Arrays.equals(pbs[0].longAs(), pbs[1].longAs()) && Arrays.equals(pbs[0].xs(), pbs[1].xs())) {
+            variables -= h1.variables();
+            clauses -= h1.clauses() - results(h1);
+        }
+        return new Cost(DECOMPOSE, variables, clauses);
+    }
+
+    /**
+     * Returns the least estimated cost of encoding pb by COST among
+     * at-most-one, counter matrix or adder, decomposition, and direct CNF encodings.
+     * Counters of at-most-one constraints are not estimated since they are never smaller,
+     * and direct CNF is counted only up to the clauses of the best other encoding.
+     * Constraints encoded with BASE are estimated like an adder.
+     */
+    private Cost estimate(PBConstraint pb) {
+        if (pb.isValid())
+            return new Cost(VALID, 0, 0);
+        if (pb.isUnsat())
+            return new Cost(UNSAT, 0, 1);
+        if (useBase(pb))
+            return estimateByAdder(pb, BY_BASE);
+        Cost best = null;
+        if (useAMO && isAtMostOne(pb)) {
+            long[] c = AtMostOne.cost(pb.size());
+            best = new Cost(AS_AMO, c[1], c[0] + (pb.cmp().equals(PBConstraint.EQ) ? 1 : 0));
+        }
+        Cost cost;
+        if (best == null) {
+            cost = isLarge(pb) ? estimateByAdder(pb, BY_ADDER) : estimateByCounterMatrix(pb);
+            if (cost.isLessThan(best, costObjective))
+                best = cost;
+        }
+        long base = decomposePB > 0 && ! isLarge(pb) ? decomposableBase(pb) : 0;
+        if (base > 0) {
+            cost = estimateByDecomposition(pb, base);
+            if (cost.isLessThan(best, costObjective))
+                best = cost;
+        }
+        long clauses = countAsCNF(pb, best.clauses(), new long[] { CNF_COUNT_LIMIT });
+        if (clauses <= best.clauses()) {
+            cost = new Cost(AS_CNF, 0, clauses);
+            if (cost.isLessThan(best, costObjective))
+                best = cost;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the encoding of pb chosen by the option flags in the order of
+     * decomposition, direct CNF (up to ENCODE_AS_CNF_LITERALS_SIZE literals),
+     * at-most-one, BASE, adder (for big or too large constraints), and counter matrix.
+     */
+    private String chooseByFlags(PBConstraint pb) {
+        // Decomposition of large constraints multiplies clauses of each part
+        if (decomposePB > 0 && ! isLarge(pb) && decomposableBase(pb) > 0)
+            return DECOMPOSE;
+        if (pb.size() <= cnfLiteralsSize)
+            return AS_CNF;
+        if (useAMO && isAtMostOne(pb))
+            return AS_AMO;
+        if (useBase(pb))
+            return BY_BASE;
+        if (isLarge(pb))
+            return BY_ADDER;
+        return BY_CM;
+    }
+
+    private String choose(PBConstraint pb) throws IOException {
+        if (pb.isValid())
+            return VALID;
+        if (pb.isUnsat())
+            return UNSAT;
+        if (costObjective == Cost.NONE || useBase(pb))
+            return chooseByFlags(pb);
+        Cost cost = estimate(pb);
+        if (debug >= 1)
+            writeComment("# Chosen " + cost);
+        return cost.encoding();
+    }
+
+    /**
+     * Emits clauses of pb ORed with the prefix literals.
+     */
+    public void encodePB(PBConstraint pb) throws IOException {
         if (debug >= 1)
             writeComment("# Encoding PB " + pb.toString());
-        List<Integer> literals1 = new ArrayList<Integer>();
-        List<Clause> clauses1 = new ArrayList<Clause>();
+        int size = prefixSize();
         PBConstraint pb1 = pb;
-        if (ENCODE_CLAUSE_PART) {
-            pb1 = encodeClausePart(pb, literals1, clauses1);
-        }
-        // pb <==> (pb1 or literals1) and clauses1
-        List<Clause> clauses = null;
-        if (DECOMPOSE_PB > 0) {
-            clauses = decomposePB(pb1);
-        }
-        if (clauses == null) {
-            if (pb1.isValid()) {
-                clauses = TRUE_CNF;
-            } else if (pb1.isUnsat()) {
-                clauses = FALSE_CNF;
-            } else if (pb1.size() <= ENCODE_AS_CNF_LITERALS_SIZE) {
-                clauses = encodeAsCNF(pb1);
-            } else {
-                clauses = encodePB_(pb1);
+        if (useClausePart) {
+            pb1 = encodeClausePart(pb);
+        }
+        // pb <==> (pb1 or pushed literals) and emitted clauses
+        String encoding = choose(pb1);
+        Integer count = countEncodings.get(encoding);
+        countEncodings.put(encoding, count == null ? 1 : count + 1);
+        if (encoding.equals(VALID)) {
+        } else if (encoding.equals(UNSAT)) {
+            emitClause();
+        } else if (encoding.equals(DECOMPOSE)) {
+            decomposePB(pb1, decomposableBase(pb1));
+        } else if (encoding.equals(AS_CNF)) {
+            encodeAsCNF(pb1);
+        } else if (encoding.equals(AS_AMO)) {
+            encodeAtMostOne(pb1);
+        } else {
+            encodePB_(pb1, encoding);
+        }
+        popPrefix(size);
+    }
+    
+    public TreeMap<Long,Integer> getObjectiveCodes() {
+        return objectiveCodes;
+    }
+
+    public void setObjectiveCodes(TreeMap<Long,Integer> objectiveCodes) {
+        this.objectiveCodes = objectiveCodes;
+    }
+
+    /**
+     * Emits the clause of objective <= b, where objective is the left-hand side of "min:".
+     * The objective is encoded only at the first call by a counter matrix up to b
+     * (or by an adder when it is large), and tighter bounds are given by unit clauses
+     * of its literals of objective >= b+1.
+     */
+    public void encodeObjective(PBConstraint objective, BigInteger b) throws IOException {
+        BigInteger v = b.add(BigInteger.ONE);
+        if (objectiveCodes != null && v.compareTo(BigInteger.valueOf(objectiveCodes.lastKey())) < 0) {
+            Entry<Long,Integer> e = objectiveCodes.floorEntry(v.max(BigInteger.valueOf(Long.MIN_VALUE)).longValue());
+            if (e == null)
+                emitClause();
+            else
+                emitClause(neg(e.getValue()));
+            return;
+        }
+        if (objectiveAdder != null) {
+            emitClause(neg(objectiveAdder.ge(v.subtract(objectiveOffset))));
+            return;
+        }
+        // a*x = a + (-a)*~x for negative a
+        int n = objective.size();
+        List<BigInteger> as = new ArrayList<BigInteger>();
+        int[] xs = new int[n];
+        BigInteger offset = BigInteger.ZERO;
+        for (int i = 1; i <= n; i++) {
+            BigInteger a = objective.a(i);
+            int x = objective.x(i);
+            if (a.signum() < 0) {
+                offset = offset.add(a);
+                a = a.negate();
+                x = PBLiteral.negate(x);
+            }
+            if (a.signum() > 0) {
+                xs[as.size()] = pbLiteral(x);
+                as.add(a);
             }
         }
-        clauses = and(clauses1, or(clauses, new Clause(literals1)));
+        n = as.size();
+        xs = Arrays.copyOf(xs, n);
+        BigInteger b1 = b.subtract(offset);
+        if (b1.signum() < 0) {
+            emitClause();
+            return;
+        }
+        if (n == 0)
+            return;
+        long[] longAs = new long[n];
+        boolean large = b1.bitLength() >= 63;
+        for (int i = 0; i < n; i++) {
+            large = large || as.get(i).bitLength() >= 63;
+            longAs[i] = as.get(i).longValue();
+        }
+        if (large || isLargeCM(longAs, b1.longValue() + 1)) {
+            if (debug >= 1)
+                writeComment("# Adder for objective " + objective.toString());
+            objectiveAdder = encodeByAdder(as.toArray(new BigInteger[0]), xs);
+            objectiveOffset = offset;
+            emitClause(neg(objectiveAdder.ge(b1.add(BigInteger.ONE))));
+            return;
+        }
+        // Coefficients are limited to m, since sums of m or more are not distinguished
+        int m = (int)b1.longValue() + 1;
+        int[] asInt = new int[n];
+        for (int i = 0; i < n; i++)
+            asInt[i] = (int)Math.min(longAs[i], m);
         if (debug >= 1)
-            writeComment("# Result PB " + toString(clauses));
-        return clauses;
+            writeComment("# CM for objective " + objective.toString());
+        CM z = encodeByCounterMatrix(asInt, xs, m);
+        objectiveCodes = new TreeMap<Long,Integer>();
+        long base = offset.longValue();
+        int code = UNDEF;
+        for (int j = 1; j <= m; j++) {
+            int code1 = z.elem(n, j);
+            if (code1 != code)
+                objectiveCodes.put(base + j, code1);
+            code = code1;
+        }
+        objectiveCodes.put(base + m + 1, UNDEF);
+        z.encodeCmp(PBConstraint.LE, m - 1);
     }
-    
+
     public void encode(PBConstraint pb) throws IOException {
-        pb.normalize();
+        pb.normalize(sortCoef);
         if (debug >= 1)
             writeComment("# Input PB " + pb.toString());
-        List<Clause> clauses = encodePB(pb);
+        encodePB(pb);
         if (debug >= 1)
             writeComment("# Output PB " + pb.toString());
-        for (Clause clause : clauses) {
-            writeClause(clause);
-        }
     }
 }
@@ -0,0 +1,158 @@
+package pbsugar.encoder;
+
+import java.util.Arrays;
+
+/**
+ * Mixed radix for the BASE encoding of PB constraints.
+ * Radices are primes up to the given maximum, and they are searched
+ * (as in MiniSat+) so that the sum of digits of all coefficients is minimized.
+ * The sum of digits estimates the size of the digit-wise counters,
+ * and the numbers of carries are added to it when sumCarries (PBEncoder.SUM_CARRIES) is set.
+ * An instance is kept by each encoder, and its table of primes is sieved
+ * only as far as the searches reach (never beyond the largest coefficient).
+ */
+public class Radix {
+    public static int SEARCH_LIMIT = 10000;
+    // Maximum number of radices tried in a search (radices pruned by the cost are not counted as nodes)
+    public static int TRIAL_LIMIT = 100 * SEARCH_LIMIT;
+    private static int SEGMENT_SIZE = 1 << 20;
+
+    private long maxPrime;
+    private boolean sumCarries;
+    private int[] primes = new int[64];
+    private int primesSize = 0;
+    // All primes up to sieved are in the table
+    private long sieved = 1;
+    private long bestCost;
+    private int[] bestBase;
+    private int[] base = new int[64];
+    private int nodes;
+    private int trials;
+
+    public Radix(int maxPrime, boolean sumCarries) {
+        this.maxPrime = maxPrime;
+        this.sumCarries = sumCarries;
+    }
+
+    /**
+     * Adds the primes in (sieved, sieved+SEGMENT_SIZE] (up to maxPrime) to the table.
+     * Each composite in the segment is crossed off by a prime factor found before it,
+     * either in the table or earlier in the segment.
+     */
+    private void sieve() {
+        long lo = sieved + 1;
+        long hi = Math.min(maxPrime, sieved + Math.min(Math.max(sieved, 1024), SEGMENT_SIZE));
+        boolean[] composite = new boolean[(int)(hi - lo + 1)];
+        for (int i = 0; i < primesSize && (long)primes[i] * primes[i] <= hi; i++) {
+            long p = primes[i];
+            for (long q = Math.max(p * p, (lo + p - 1) / p * p); q <= hi; q += p)
+                composite[(int)(q - lo)] = true;
+        }
+        for (long p = lo; p <= hi; p++) {
+            if (composite[(int)(p - lo)])
+                continue;
+            if (primesSize == primes.length)
+                primes = Arrays.copyOf(primes, 2 * primesSize);
+            primes[primesSize++] = (int)p;
+            for (long q = p * p; q <= hi; q += p)
+                composite[(int)(q - lo)] = true;
+        }
+        sieved = hi;
+    }
+
+    /**
+     * Returns the i-th prime, or 0 when it is larger than max or maxPrime.
+     */
+    private int prime(int i, long max) {
+        while (i >= primesSize && sieved < Math.min(max, maxPrime))
+            sieve();
+        if (i >= primesSize || primes[i] > max)
+            return 0;
+        return primes[i];
+    }
+
+    /**
+     * Returns a + b, saturated at Long.MAX_VALUE for nonnegative a and b.
+     */
+    private static long add(long a, long b) {
+        long c = a + b;
+        return c < 0 ? Long.MAX_VALUE : c;
+    }
+
+    /**
+     * Returns sum + a * c, saturated at Long.MAX_VALUE for nonnegative arguments.
+     */
+    private static long addProduct(long sum, long a, long c) {
+        if (c != 0 && a > (Long.MAX_VALUE - sum) / c)
+            return Long.MAX_VALUE;
+        return sum + a * c;
+    }
+
+    /**
+     * Coefficients are given as distinct values as with their numbers of occurrences cs.
+     */
+    private void search(long[] as, long[] cs, long carries, long cost, int depth) {
+        if (cost >= bestCost || nodes++ >= SEARCH_LIMIT)
+            return;
+        long max = 0;
+        long finalCost = cost;
+        for (int i = 0; i < as.length; i++) {
+            finalCost = addProduct(finalCost, as[i], cs[i]);
+            max = Math.max(max, as[i]);
+        }
+        if (finalCost < bestCost) {
+            bestCost = finalCost;
+            bestBase = Arrays.copyOf(base, depth);
+        }
+        if (depth == base.length)
+            return;
+        for (int j = 0; nodes < SEARCH_LIMIT && trials < TRIAL_LIMIT; j++) {
+            int p = prime(j, max);
+            if (p == 0)
+                break;
+            trials++;
+            long digits = 0;
+            long[] as1 = new long[as.length];
+            long[] cs1 = new long[as.length];
+            int n1 = 0;
+            for (int i = 0; i < as.length; i++) {
+                digits = addProduct(digits, as[i] % p, cs[i]);
+                if (as[i] / p > 0) {
+                    as1[n1] = as[i] / p;
+                    cs1[n1++] = cs[i];
+                }
+            }
+            long cost1 = add(cost, digits);
+            if (sumCarries)
+                cost1 = add(cost1, carries);
+            base[depth] = p;
+            search(Arrays.copyOf(as1, n1), Arrays.copyOf(cs1, n1), add(digits, carries) / p, cost1, depth + 1);
+        }
+    }
+
+    /**
+     * Returns radices for the positive coefficients as,
+     * where the last digit is not bounded.
+     */
+    public int[] optimize(long[] as) {
+        long[] as1 = as.clone();
+        Arrays.sort(as1);
+        long[] cs1 = new long[as1.length];
+        int n = 0;
+        for (int i = 0; i < as1.length; i++) {
+            if (n > 0 && as1[n-1] == as1[i]) {
+                cs1[n-1]++;
+            } else {
+                as1[n] = as1[i];
+                cs1[n++] = 1;
+            }
+        }
+        bestCost = Long.MAX_VALUE;
+        bestBase = new int[0];
+        nodes = 0;
+        trials = 0;
+        search(Arrays.copyOf(as1, n), Arrays.copyOf(cs1, n), 0, 0, 0);
+        return bestBase;
+    }
+
+}
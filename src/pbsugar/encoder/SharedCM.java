@@ -20,6 +20,19 @@ public class SharedCM extends CM {
         m0 = z0.m;
     }
 
+    /**
+     * Returns the number of elements not shared with z0.
+     */
+    @Override
+    public long size() {
+        if (domain == null)
+            return (long)n * m - (long)n0 * Math.min(m, m0);
+        long size = 0;
+        for (int i = n0; i < n; i++)
+            size += domain[i].size() - 1;
+        return size;
+    }
+
     @Override
     public int elem0(int i, int j) {
         int code;
@@ -50,7 +63,7 @@ public class SharedCM extends CM {
             matrix2 = encoder.newAuxVar("z");
             encoder.newVar(matrix2, n-n0, m);
         }
-        if (ORDER_AXIOMS) {
+        if (encoder.orderAxioms) {
             for (int i = 1; i <= n; i++) {
                 for (int j = 1; j <= m; j++) {
                     if (i <= n0 && j <= m0) continue;
@@ -220,7 +233,7 @@ public class SharedCM extends CM {
 
     @Override
     public void encode() throws IOException {
-        if (PBEncoder.USE_SPARSE_CM) {
+        if (encoder.useSparseCM) {
             encode2();
         } else {
             encode1();
@@ -39,7 +39,7 @@ public class SimpleCM extends CM {
         // z(i, j) == 1 <==> a(1)*x(1) + ... + a(i)*x(i) >= j                                                                                                 
         // z(i, j) = 1 (when j <= 0)                                                                                                                          
         // z(0, j) = 0 (when j = 1..m)                                                                                                                      
-        if (ORDER_AXIOMS) {
+        if (encoder.orderAxioms) {
             for (int i = 1; i <= n; i++) {
                 for (int j = 1; j <= m; j++) {
                     // (z(i, j) === 1) ==> (z(i, j-1) === 1)
@@ -95,7 +95,7 @@ public class SimpleCM extends CM {
         // z(i, j) == 1 <==> a(1)*x(1) + ... + a(i)*x(i) >= j                                                                                                 
         // z(i, j) = 1 (when j <= 0)                                                                                                                          
         // z(0, j) = 0 (when j = 1..m)                                                                                                                      
-        if (ORDER_AXIOMS) {
+        if (encoder.orderAxioms) {
             for (int i = 1; i <= n; i++) {
                 int j0 = 0;
                 for (int[] r : domain[i - 1].intervals) {
@@ -273,9 +273,9 @@ public class SimpleCM extends CM {
             encodeSum(sumVar[i-1], domain[i-1]);
         }
         // x(1) || ! s(1) >= a(1)
-        encoder.writeClause(xs[0], neg(elem(1, as[0])));
+        encoder.writeClause(xs[0], neg(elem(1, Math.min(as[0], m))));
         // ! x(1) || (s(1) >= a(1))
-        encoder.writeClause(neg(xs[0]), elem(1, as[0]));
+        encoder.writeClause(neg(xs[0]), elem(1, Math.min(as[0], m)));
         for (int i = 2; i <= n; i++) {
             for (int[] r : domain[i - 1].intervals) {
                 for (int j = r[0]; j <= r[1]; j++) {
@@ -320,7 +320,7 @@ public class SimpleCM extends CM {
     
     @Override
     public void encode() throws IOException {
-        if (PBEncoder.USE_SPARSE_CM) {
+        if (encoder.useSparseCM) {
             encode2();
         } else {
             encode1();
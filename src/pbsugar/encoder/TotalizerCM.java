@@ -0,0 +1,165 @@
+package pbsugar.encoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Generalized totalizer of a(1)*x(1) + ... + a(n)*x(n).
+ * Terms with the same coefficient a are counted by a unit-weight counter
+ * whose outputs (count >= t) are used as (sum >= a*t).
+ * Sub-sums are merged in a tree where two nodes of the smallest domains are merged first,
+ * and each node has order encoded variables over its domain of distinct sums (limited to m).
+ * Only elem(n, j) is available.
+ */
+public class TotalizerCM extends CM {
+    private Node root;
+    private long variables = 0;
+    private long clauses = 0;
+
+    private class Node {
+        Domain domain;
+        // Leaf: terms with coefficient a
+        int a;
+        int[] xs0;
+        CM counter = null;
+        // Internal node
+        Node left = null;
+        Node right = null;
+        String sum = null;
+
+        Node(int a, int[] xs0) {
+            this.a = a;
+            this.xs0 = xs0;
+            Domain d = new Domain(0);
+            for (int t = 1; t <= size(); t++)
+                d = d.union(new Domain(Math.min(a * t, m)));
+            domain = d;
+        }
+
+        Node(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            Domain d = left.domain.plus(right.domain);
+            if (d.ub() >= m + 1)
+                d = d.limit(m).union(new Domain(m));
+            domain = d;
+        }
+
+        boolean isLeaf() {
+            return left == null;
+        }
+
+        /**
+         * Returns the number of outputs of the counter of a leaf.
+         */
+        int size() {
+            return (int)Math.min(xs0.length, ((long)m + a - 1) / a);
+        }
+
+        int ge(int value) {
+            if (value <= 0)
+                return Encoder.TRUE;
+            if (! isLeaf())
+                return sumCode(sum, domain, value);
+            int t = (value + a - 1) / a;
+            if (t > size())
+                return Encoder.FALSE;
+            if (counter == null)
+                return xs0[0];
+            return counter.elem(counter.n(), t);
+        }
+    }
+
+    public TotalizerCM(int[] as, int[] xs, int m, PBEncoder encoder) {
+        super(as, xs, m, encoder);
+        name = "TotalizerCM";
+        Map<Integer,List<Integer>> groups = new LinkedHashMap<Integer,List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            int a = Math.min(as[i], m);
+            if (! groups.containsKey(a))
+                groups.put(a, new ArrayList<Integer>());
+            groups.get(a).add(xs[i]);
+        }
+        PriorityQueue<Node> queue = new PriorityQueue<Node>(groups.size(), new Comparator<Node>() {
+            public int compare(Node node1, Node node2) {
+                return Integer.compare(node1.domain.size(), node2.domain.size());
+            }
+        });
+        for (Map.Entry<Integer,List<Integer>> e : groups.entrySet()) {
+            List<Integer> list = e.getValue();
+            int[] xs0 = new int[list.size()];
+            for (int i = 0; i < xs0.length; i++)
+                xs0[i] = list.get(i);
+            Node node = new Node(e.getKey(), xs0);
+            if (xs0.length > 1) {
+                variables += (long)xs0.length * node.size();
+                clauses += 5L * xs0.length * node.size();
+            }
+            queue.add(node);
+        }
+        while (queue.size() > 1) {
+            Node node = new Node(queue.poll(), queue.poll());
+            variables += node.domain.size() - 1;
+            clauses += 2L * node.left.domain.size() * node.right.domain.size() + node.domain.size();
+            queue.add(node);
+        }
+        root = queue.poll();
+    }
+
+    /**
+     * Unit-weight counters are estimated as SimpleCM.
+     */
+    @Override
+    public Cost cost() {
+        return new Cost(name, variables, clauses);
+    }
+
+    @Override
+    public int elem0(int i, int j) {
+        if (i != n || j < 1 || j > m)
+            throw new IllegalArgumentException("elem " + i + " " + j);
+        return root.ge(j);
+    }
+
+    private void encode(Node node) throws IOException {
+        if (node.isLeaf()) {
+            if (node.xs0.length > 1) {
+                int[] ones = new int[node.xs0.length];
+                Arrays.fill(ones, 1);
+                node.counter = encoder.encodeByCounterMatrix(ones, node.xs0, node.size());
+            }
+            return;
+        }
+        encode(node.left);
+        encode(node.right);
+        node.sum = encoder.newAuxVar("t");
+        encodeSum(node.sum, node.domain);
+        Domain d1 = node.left.domain;
+        Domain d2 = node.right.domain;
+        for (int[] r1 : d1.intervals) {
+            for (int j1 = r1[0]; j1 <= r1[1]; j1++) {
+                for (int[] r2 : d2.intervals) {
+                    for (int j2 = r2[0]; j2 <= r2[1]; j2++) {
+                        // left >= j1 && right >= j2 ==> sum >= j1+j2
+                        encoder.writeClause(neg(node.left.ge(j1)), neg(node.right.ge(j2)),
+                                node.ge(Math.min(j1 + j2, m)));
+                        // left < j1+1 && right < j2+1 ==> sum < j1+j2+1
+                        encoder.writeClause(node.left.ge(j1 + 1), node.right.ge(j2 + 1),
+                                neg(node.ge(j1 + j2 + 1)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void encode() throws IOException {
+        encode(root);
+    }
+}
@@ -0,0 +1,210 @@
+package pbsugar.pb;
+
+import java.util.Arrays;
+
+/**
+ * Upper bound of the LHS of a normalized PBConstraint with long coefficients
+ * while its terms are fixed one by one.
+ * Whether a constraint becomes unsat (or valid) when a term is fixed is monotone
+ * in the coefficient of the term, so the terms to be fixed always form a prefix
+ * of the remaining terms in the descending order of coefficients.
+ * Terms are therefore fixed in that order, and the bound is updated in constant time.
+ * normalize() follows PBConstraint.normalize() on the remaining terms
+ * (division by GCD and negation of literals) without rebuilding the constraint.
+ */
+public class PBBounds {
+    private PBConstraint pb;
+    // Order of terms of the remaining constraint (as PBConstraint.SORT_COEF)
+    private int sortCoef;
+    private int[] order;
+    // gcds[k] is GCD of the coefficients of the terms order[k], order[k+1], ...
+    private long[] gcds;
+    private int[] values;
+    private int fixed = 0;
+    // The remaining constraint is sum(a/scale * x) cmp b where x is negated when negated is true
+    private long scale = 1;
+    private boolean negated = false;
+    private String cmp;
+    private long b;
+    private long ub;
+    // True when the remaining terms are removed by normalization
+    private boolean cleared = false;
+
+    public PBBounds(PBConstraint pb) {
+        this(pb, PBConstraint.SORT_COEF);
+    }
+
+    public PBBounds(PBConstraint pb, int sortCoef) {
+        assert(! pb.isBig());
+        this.pb = pb;
+        this.sortCoef = sortCoef;
+        int n = pb.size();
+        order = pb.termsByCoef();
+        gcds = new long[n + 1];
+        for (int k = n - 1; k >= 0; k--) {
+            assert(pb.longA(order[k] + 1) > 0);
+            gcds[k] = PBConstraint.gcd(pb.longA(order[k] + 1), gcds[k+1]);
+        }
+        values = new int[n];
+        Arrays.fill(values, -1);
+        cmp = pb.cmp();
+        b = pb.longB();
+        ub = pb.longUbLHS();
+    }
+
+    /**
+     * Returns the number of terms not fixed yet.
+     */
+    public int remaining() {
+        return cleared ? 0 : order.length - fixed;
+    }
+
+    /**
+     * Returns the index (from 1) of the k-th largest term not fixed yet.
+     */
+    public int term(int k) {
+        return order[fixed + k] + 1;
+    }
+
+    private long a(int i) {
+        return pb.longA(i) / scale;
+    }
+
+    public boolean isValid() {
+        return PBConstraint.isValidUnder(cmp, b, 0, ub);
+    }
+
+    public boolean isUnsat() {
+        return PBConstraint.isUnsatUnder(cmp, b, 0, ub);
+    }
+
+    /**
+     * Returns true when the remaining constraint is valid
+     * if the literal of the i-th term (see literal()) is the given value.
+     */
+    public boolean isValidWhen(int i, int value) {
+        return value == 0 ? PBConstraint.isValidUnder(cmp, b, 0, ub - a(i)) :
+            PBConstraint.isValidUnder(cmp, b, a(i), ub);
+    }
+
+    /**
+     * Returns true when the remaining constraint is unsat
+     * if the literal of the i-th term (see literal()) is the given value.
+     */
+    public boolean isUnsatWhen(int i, int value) {
+        return value == 0 ? PBConstraint.isUnsatUnder(cmp, b, 0, ub - a(i)) :
+            PBConstraint.isUnsatUnder(cmp, b, a(i), ub);
+    }
+
+    /**
+     * Fixes the literal of the largest remaining term, which must be the i-th term.
+     */
+    public void fix(int i, int value) {
+        assert(i == term(0));
+        long a = a(i);
+        if (value == 1)
+            b -= a;
+        ub -= a;
+        values[i-1] = negated ? 1 - value : value;
+        fixed++;
+    }
+
+    /**
+     * Returns the literal of the i-th term in the remaining constraint,
+     * which is negated when normalization has chosen the opposite orientation.
+     */
+    public int literal(int i) {
+        return negated ? PBLiteral.negate(pb.x(i)) : pb.x(i);
+    }
+
+    /**
+     * Returns the literal of the i-th term which is true by its fixed value.
+     */
+    public int fixedLiteral(int i) {
+        return values[i-1] == 1 ? pb.x(i) : PBLiteral.negate(pb.x(i));
+    }
+
+    private void divide(long g) {
+        scale *= g;
+        ub /= g;
+    }
+
+    /**
+     * Applies the same steps as normalizeGCD() and normalizeCmp() of PBConstraint.
+     */
+    public void normalize() {
+        if (cleared || isValid() || isUnsat())
+            return;
+        long g = gcds[fixed] / scale;
+        if (b != 0 && g != 1) {
+            if (cmp.equals(PBConstraint.LE)) {
+                divide(g);
+                b = b / g;
+            } else if (cmp.equals(PBConstraint.GE)) {
+                divide(g);
+                b = (b + g - 1) / g;
+            } else {
+                long g1 = PBConstraint.gcd(Math.abs(b), g);
+                if (g1 == 1) {
+                    // False for EQ, and True for NE
+                    cleared = true;
+                    ub = 0;
+                    b = 1;
+                    return;
+                }
+                divide(g1);
+                b = b / g1;
+            }
+        }
+        if (isValid() || isUnsat())
+            return;
+        long b1 = ub - b;
+        if (b1 < b) {
+            negated = ! negated;
+            b = b1;
+            if (cmp.equals(PBConstraint.LE)) {
+                cmp = PBConstraint.GE;
+            } else if (cmp.equals(PBConstraint.GE)) {
+                cmp = PBConstraint.LE;
+            }
+        }
+    }
+
+    /**
+     * Returns the remaining constraint in the same form as PBConstraint.normalize() gives.
+     */
+    public PBConstraint toConstraint() {
+        int m = remaining();
+        long[] as = new long[m];
+        int[] xs = new int[m];
+        int k = 0;
+        for (int i = 1; k < m; i++) {
+            if (values[i-1] < 0) {
+                as[k] = a(i);
+                xs[k++] = literal(i);
+            }
+        }
+        PBConstraint pb1 = new PBConstraint(as, xs, cmp, b);
+        pb1.sortByCoef(sortCoef);
+        return pb1;
+    }
+
+    /**
+     * Sorts indices of terms in the order of the remaining constraint.
+     */
+    public int[] sort(int[] is) {
+        int m = is.length;
+        long[] as = new long[m];
+        int[] xs = new int[m];
+        for (int k = 0; k < m; k++) {
+            as[k] = a(is[k]);
+            xs[k] = literal(is[k]);
+        }
+        int[] perm = (new PBConstraint(as, xs, cmp, b)).sortedTerms(sortCoef);
+        int[] sorted = new int[m];
+        for (int k = 0; k < m; k++)
+            sorted[k] = is[perm[k]];
+        return sorted;
+    }
+
+}
@@ -3,10 +3,9 @@ package pbsugar.pb;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
 
 public class PBConstraint {
     public static int SORT_COEF = 3;
@@ -16,106 +15,347 @@ public class PBConstraint {
     public static String NE = "!=";
     // public static PBConstraint FALSE_PB = new PBConstraint(null, null, GE, BigInteger.ONE);
     // public static PBConstraint TRUE_PB = new PBConstraint(null, null, GE, BigInteger.ZERO);
-    
-    private List<BigInteger> as;
-    private List<PBLiteral> xs;
+
+    private static final int[] NO_LITERALS = new int[0];
+    /**
+     * Coefficients and RHS are kept in long values when the sum of their
+     * absolute values is at most LONG_LIMIT.
+     * Then no intermediate value of normalization and bound computation
+     * can overflow, since it is bounded by a small multiple of the sum.
+     */
+    private static final long LONG_LIMIT = 1L << 60;
+    private static final BigInteger BIG_LONG_LIMIT = BigInteger.valueOf(LONG_LIMIT);
+
+    private long[] as;
+    private int[] xs;
     private String cmp;
-    private BigInteger b;
-    
-    public PBConstraint(List<BigInteger> as, List<PBLiteral> xs, String cmp, BigInteger b) {
-        assert(as == null || as.size() == xs.size());
+    private long b;
+    // Coefficients and RHS of big constraints (as == null)
+    private List<BigInteger> bigAs = null;
+    private BigInteger bigB = null;
+    // Cached sum of the coefficients (NO_BOUND when not computed yet)
+    private static final long NO_BOUND = Long.MIN_VALUE;
+    private long ubLHS = NO_BOUND;
+
+    /**
+     * Literals xs are signed variable numbers given by PBLiteral.
+     * All coefficients are 1 when as is null.
+     */
+    public PBConstraint(long[] as, int[] xs, String cmp, long b) {
+        assert(as == null || as.length == xs.length);
         assert(cmp.equals(LE) || cmp.equals(GE) || cmp.equals(EQ) || cmp.equals(NE));
         if (as == null) {
-            as = new ArrayList<BigInteger>();
-            for (int i = 0; i < xs.size(); i++)
-                as.add(BigInteger.ONE);
-        }            
+            as = new long[xs.length];
+            Arrays.fill(as, 1);
+        }
         this.as = as;
         this.xs = xs;
         this.cmp = cmp;
         this.b = b;
+        if (! fitsLong(as, b))
+            promote();
+    }
+
+    public PBConstraint(List<BigInteger> as, int[] xs, String cmp, BigInteger b) {
+        assert(as == null || as.size() == xs.length);
+        assert(cmp.equals(LE) || cmp.equals(GE) || cmp.equals(EQ) || cmp.equals(NE));
+        if (as == null) {
+            as = new ArrayList<BigInteger>();
+            for (int i = 0; i < xs.length; i++)
+                as.add(BigInteger.ONE);
+        }
+        this.bigAs = as;
+        this.xs = xs;
+        this.cmp = cmp;
+        this.bigB = b;
+        demote();
+    }
+
+    private static boolean fitsLong(long[] as, long b) {
+        if (b < -LONG_LIMIT || b > LONG_LIMIT)
+            return false;
+        long s = Math.abs(b);
+        for (long a : as) {
+            if (a < -LONG_LIMIT || a > LONG_LIMIT)
+                return false;
+            s += Math.abs(a);
+            if (s > LONG_LIMIT)
+                return false;
+        }
+        return true;
+    }
+
+    private void promote() {
+        bigAs = new ArrayList<BigInteger>(as.length);
+        for (long a : as)
+            bigAs.add(BigInteger.valueOf(a));
+        bigB = BigInteger.valueOf(b);
+        as = null;
+        ubLHS = NO_BOUND;
+    }
+
+    private void demote() {
+        if (bigAs == null)
+            return;
+        BigInteger s = bigB.abs();
+        if (s.compareTo(BIG_LONG_LIMIT) > 0)
+            return;
+        for (BigInteger a : bigAs) {
+            s = s.add(a.abs());
+            if (s.compareTo(BIG_LONG_LIMIT) > 0)
+                return;
+        }
+        int n = bigAs.size();
+        as = new long[n];
+        for (int i = 0; i < n; i++)
+            as[i] = bigAs.get(i).longValue();
+        b = bigB.longValue();
+        bigAs = null;
+        bigB = null;
+        ubLHS = NO_BOUND;
+    }
+
+    /**
+     * Returns true when coefficients are kept in BigInteger values.
+     */
+    public boolean isBig() {
+        return as == null;
     }
-    
+
     public void normalize() {
-        normalizeVariables();
-        normalizeNegative();
-        normalizeGCD();
-        normalizeCmp();
-        sortByCoef();
+        normalize(SORT_COEF);
+    }
+
+    /**
+     * Normalizes the constraint, and sorts its terms in the order given by sortCoef (as SORT_COEF).
+     */
+    public void normalize(int sortCoef) {
+        if (isBig()) {
+            normalizeVariablesBig();
+            normalizeNegativeBig();
+            normalizeGCDBig();
+            normalizeCmpBig();
+            demote();
+        } else {
+            normalizeVariables();
+            normalizeNegative();
+            ubLHS = NO_BOUND;
+            normalizeGCD();
+            ubLHS = NO_BOUND;
+            normalizeCmp();
+        }
+        sortByCoef(sortCoef);
+    }
+
+    /**
+     * Returns an empty open addressing table for at most n variables.
+     * Each slot holds a position in xs plus one, or zero when unused.
+     */
+    private static int[] newIndexTable(int n) {
+        int size = 4;
+        while (size < 2 * n)
+            size <<= 1;
+        return new int[size];
+    }
+
+    /**
+     * Returns the slot of the variable x, or the empty slot where it should be added.
+     */
+    private static int findIndex(int[] table, int[] xs, int x) {
+        int mask = table.length - 1;
+        int h = x * 0x9E3779B9;
+        int k = (h ^ (h >>> 16)) & mask;
+        while (table[k] > 0 && xs[table[k] - 1] != x)
+            k = (k + 1) & mask;
+        return k;
     }
 
     /**
      * Multiple occurrences of variables are replaced with a single occurrence.
-     * +2*x -3*x ==> -1*x 
+     * +2*x -3*x ==> -1*x
      */
     private void normalizeVariables() {
+        int n = size();
+        long[] as = new long[n];
+        int[] xs = new int[n];
+        int[] table = newIndexTable(n);
+        int m = 0;
+        long b = this.b;
+        for (int i = 0; i < n; i++) {
+            long a = this.as[i];
+            int x = this.xs[i];
+            if (PBLiteral.isNegative(x)) {
+                a = -a;
+                x = PBLiteral.negate(x);
+                b += a;
+            }
+            int k = findIndex(table, xs, x);
+            if (table[k] > 0) {
+                as[table[k] - 1] += a;
+            } else {
+                as[m] = a;
+                xs[m++] = x;
+                table[k] = m;
+            }
+        }
+        this.as = Arrays.copyOf(as, m);
+        this.xs = Arrays.copyOf(xs, m);
+        this.b = b;
+    }
+
+    private void normalizeVariablesBig() {
         List<BigInteger> as = new ArrayList<BigInteger>();
-        List<PBLiteral> xs = new ArrayList<PBLiteral>();
-        BigInteger b = this.b;
         int n = size();
+        int[] xs = new int[n];
+        int[] table = newIndexTable(n);
+        int m = 0;
+        BigInteger b = this.bigB;
         for (int i = 0; i < n; i++) {
-            BigInteger a = this.as.get(i);
-            PBLiteral x = this.xs.get(i);
-            if (x.isNegative()) {
+            BigInteger a = this.bigAs.get(i);
+            int x = this.xs[i];
+            if (PBLiteral.isNegative(x)) {
                 a = a.negate();
-                x = x.negate();
+                x = PBLiteral.negate(x);
                 b = b.add(a);
             }
-            boolean found = false;
-            for (int j = 0; j < xs.size(); j++) {
-                if (x.equals(xs.get(j))) {
-                    found = true;
-                    as.set(j, as.get(j).add(a));
-                }
-            }
-            if (! found) {
+            int k = findIndex(table, xs, x);
+            if (table[k] > 0) {
+                as.set(table[k] - 1, as.get(table[k] - 1).add(a));
+            } else {
                 as.add(a);
-                xs.add(x);
+                xs[m++] = x;
+                table[k] = m;
             }
         }
-        this.as = as;
-        this.xs = xs;
-        this.b = b;
+        this.bigAs = as;
+        this.xs = Arrays.copyOf(xs, m);
+        this.bigB = b;
     }
 
     /**
      * Negative coefficients are replaced with positive coefficients.
-     * -2*x -3*y <= -2 ==> +2*!x +3*!y <= 3 
+     * -2*x -3*y <= -2 ==> +2*!x +3*!y <= 3
      */
     private void normalizeNegative() {
-        List<BigInteger> as = new ArrayList<BigInteger>();
-        List<PBLiteral> xs = new ArrayList<PBLiteral>();
-        BigInteger b = this.b;
         int n = size();
+        long[] as = new long[n];
+        int[] xs = new int[n];
+        int m = 0;
+        long b = this.b;
         for (int i = 0; i < n; i++) {
-            if (this.as.get(i).signum() < 0) { 
-                as.add(this.as.get(i).negate());
-                xs.add(this.xs.get(i).negate());
-                b = b.subtract(this.as.get(i));
-            } else if (this.as.get(i).signum() > 0) {
-                as.add(this.as.get(i));
-                xs.add(this.xs.get(i));
+            if (this.as[i] < 0) {
+                as[m] = - this.as[i];
+                xs[m++] = PBLiteral.negate(this.xs[i]);
+                b -= this.as[i];
+            } else if (this.as[i] > 0) {
+                as[m] = this.as[i];
+                xs[m++] = this.xs[i];
             }
         }
-        this.as = as;
-        this.xs = xs;
+        this.as = Arrays.copyOf(as, m);
+        this.xs = Arrays.copyOf(xs, m);
         this.b = b;
     }
 
+    private void normalizeNegativeBig() {
+        List<BigInteger> as = new ArrayList<BigInteger>();
+        int n = size();
+        int[] xs = new int[n];
+        int m = 0;
+        BigInteger b = this.bigB;
+        for (int i = 0; i < n; i++) {
+            if (this.bigAs.get(i).signum() < 0) {
+                as.add(this.bigAs.get(i).negate());
+                xs[m++] = PBLiteral.negate(this.xs[i]);
+                b = b.subtract(this.bigAs.get(i));
+            } else if (this.bigAs.get(i).signum() > 0) {
+                as.add(this.bigAs.get(i));
+                xs[m++] = this.xs[i];
+            }
+        }
+        this.bigAs = as;
+        this.xs = Arrays.copyOf(xs, m);
+        this.bigB = b;
+    }
+
+    static long gcd(long a, long b) {
+        while (b != 0) {
+            long r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
     /**
      * Coefficients are divided by GCD.
      */
     private void normalizeGCD() {
         if (isValid() || isUnsat())
             return;
-        if (b.signum() == 0)
+        if (b == 0)
             return;
         int n = size();
         assert(n > 0);
-        assert(b.signum() > 0);
-        BigInteger gcd = this.as.get(0);
+        assert(b > 0);
+        long gcd = this.as[0];
         for (int i = 1; i < n; i++) {
-            gcd = this.as.get(i).gcd(gcd);
+            gcd = gcd(this.as[i], gcd);
+            if (gcd == 1)
+                return;
+        }
+        if (gcd == 1)
+            return;
+        if (cmp.equals(LE)) {
+            for (int i = 0; i < n; i++) {
+                as[i] /= gcd;
+            }
+            b = b / gcd;
+        } else if (cmp.equals(GE)) {
+            for (int i = 0; i < n; i++) {
+                as[i] /= gcd;
+            }
+            b = (b + gcd - 1) / gcd;
+        } else if (cmp.equals(EQ)) {
+            long gcd1 = gcd(Math.abs(b), gcd);
+            if (gcd1 == 1) {
+                // False
+                as = new long[0];
+                xs = NO_LITERALS;
+                b = 1;
+            } else {
+                for (int i = 0; i < n; i++) {
+                    as[i] /= gcd1;
+                }
+                b = b / gcd1;
+            }
+        } else { // cmp.equals(NE)
+            long gcd1 = gcd(Math.abs(b), gcd);
+            if (gcd1 == 1) {
+                // True
+                as = new long[0];
+                xs = NO_LITERALS;
+                b = 1;
+            } else {
+                for (int i = 0; i < n; i++) {
+                    as[i] /= gcd1;
+                }
+                b = b / gcd1;
+            }
+        }
+    }
+
+    private void normalizeGCDBig() {
+        if (isValid() || isUnsat())
+            return;
+        if (bigB.signum() == 0)
+            return;
+        int n = size();
+        assert(n > 0);
+        assert(bigB.signum() > 0);
+        BigInteger gcd = this.bigAs.get(0);
+        for (int i = 1; i < n; i++) {
+            gcd = this.bigAs.get(i).gcd(gcd);
             if (gcd.equals(BigInteger.ONE))
                 return;
         }
@@ -123,39 +363,39 @@ public class PBConstraint {
             return;
         if (cmp.equals(LE)) {
             for (int i = 0; i < n; i++) {
-                as.set(i, this.as.get(i).divide(gcd));
+                bigAs.set(i, this.bigAs.get(i).divide(gcd));
             }
-            b = b.divide(gcd);
+            bigB = bigB.divide(gcd);
         } else if (cmp.equals(GE)) {
             for (int i = 0; i < n; i++) {
-                as.set(i, this.as.get(i).divide(gcd));
+                bigAs.set(i, this.bigAs.get(i).divide(gcd));
             }
-            b = b.add(gcd).subtract(BigInteger.ONE).divide(gcd);
+            bigB = bigB.add(gcd).subtract(BigInteger.ONE).divide(gcd);
         } else if (cmp.equals(EQ)) {
-            BigInteger gcd1 = b.abs().gcd(gcd);
+            BigInteger gcd1 = bigB.abs().gcd(gcd);
             if (gcd1.equals(BigInteger.ONE)) {
                 // False
-                as = Collections.emptyList();
-                xs = Collections.emptyList();
-                b = BigInteger.ONE;
+                bigAs = Collections.emptyList();
+                xs = NO_LITERALS;
+                bigB = BigInteger.ONE;
             } else {
                 for (int i = 0; i < n; i++) {
-                    as.set(i, this.as.get(i).divide(gcd1));
+                    bigAs.set(i, this.bigAs.get(i).divide(gcd1));
                 }
-                b = b.divide(gcd1);
+                bigB = bigB.divide(gcd1);
             }
         } else { // cmp.equals(NE)
-            BigInteger gcd1 = b.abs().gcd(gcd);
+            BigInteger gcd1 = bigB.abs().gcd(gcd);
             if (gcd1.equals(BigInteger.ONE)) {
                 // True
-                as = Collections.emptyList();
-                xs = Collections.emptyList();
-                b = BigInteger.ONE;
+                bigAs = Collections.emptyList();
+                xs = NO_LITERALS;
+                bigB = BigInteger.ONE;
             } else {
                 for (int i = 0; i < n; i++) {
-                    as.set(i, this.as.get(i).divide(gcd1));
+                    bigAs.set(i, this.bigAs.get(i).divide(gcd1));
                 }
-                b = b.divide(gcd1);
+                bigB = bigB.divide(gcd1);
             }
         }
     }
@@ -166,11 +406,11 @@ public class PBConstraint {
     private void normalizeCmp() {
         if (isValid() || isUnsat())
             return;
-        BigInteger b1 = ubLHS().subtract(b);
+        long b1 = longUbLHS() - b;
         int n = size();
-        if (b1.compareTo(b) < 0) {
+        if (b1 < b) {
             for (int i = 0; i < n; i++) {
-                xs.set(i, this.xs.get(i).negate());
+                xs[i] = PBLiteral.negate(xs[i]);
             }
             b = b1;
             if (cmp.equals(LE)) {
@@ -180,82 +420,159 @@ public class PBConstraint {
             }
         }
     }
-    
-    private void sortByCoef() {
+
+    private void normalizeCmpBig() {
+        if (isValid() || isUnsat())
+            return;
+        BigInteger b1 = ubLHS().subtract(bigB);
         int n = size();
-        if (SORT_COEF > 0 && n > 0) {
-            Object[][] axs = new Object[n][];
+        if (b1.compareTo(bigB) < 0) {
             for (int i = 0; i < n; i++) {
-                axs[i] = new Object[] { as.get(i), xs.get(i) };
-            }
-            if (SORT_COEF == 1) {
-                // sort by literal name
-                Arrays.sort(axs, new Comparator<Object[]>() {
-                    @Override
-                    public int compare(Object[] arg0, Object[] arg1) {
-                        String x0 = ((PBLiteral)arg0[1]).toString();
-                        String x1 = ((PBLiteral)arg1[1]).toString();
-                        return x0.compareTo(x1);
-                    }
-                });
-            } else if (SORT_COEF == 2) {
-                // sort by coefficient in ascending order
-                Arrays.sort(axs, new Comparator<Object[]>() {
-                    @Override
-                    public int compare(Object[] arg0, Object[] arg1) {
-                        BigInteger a0 = (BigInteger)arg0[0];
-                        BigInteger a1 = (BigInteger)arg1[0];
-                        int c = a0.compareTo(a1);
-                        String x0 = ((PBLiteral)arg0[1]).toString();
-                        String x1 = ((PBLiteral)arg1[1]).toString();
-                        return c != 0 ? c : x0.compareTo(x1);
-                    }
-                });
-            } else if (SORT_COEF == 3) {
-                // sort by coefficient in descending order
-                Arrays.sort(axs, new Comparator<Object[]>() {
-                    @Override
-                    public int compare(Object[] arg0, Object[] arg1) {
-                        BigInteger a0 = (BigInteger)arg0[0];
-                        BigInteger a1 = (BigInteger)arg1[0];
-                        int c = a0.compareTo(a1);
-                        String x0 = ((PBLiteral)arg0[1]).toString();
-                        String x1 = ((PBLiteral)arg1[1]).toString();
-                        return c != 0 ? - c : x0.compareTo(x1);
-                    }
-                });
-            }
-            List<BigInteger> as = new ArrayList<BigInteger>(n);
-            List<PBLiteral> xs = new ArrayList<PBLiteral>(n);
-            for (int i = 0; i < n; i++) {
-                as.add((BigInteger)axs[i][0]);
-                xs.add((PBLiteral)axs[i][1]);
+                xs[i] = PBLiteral.negate(xs[i]);
+            }
+            bigB = b1;
+            if (cmp.equals(LE)) {
+                cmp = GE;
+            } else if (cmp.equals(GE)) {
+                cmp = LE;
+            }
+        }
+    }
+
+    /**
+     * Compares the i-th and j-th terms in the order given by mode (as SORT_COEF).
+     * Literals are compared by their order keys when keys is not null,
+     * by their names when names is not null, and by their positions otherwise.
+     */
+    private int compareTerms(int i, int j, int mode, long[] keys, String[] names) {
+        int c = 0;
+        if (mode >= 2) {
+            c = isBig() ? bigAs.get(i).compareTo(bigAs.get(j)) : Long.compare(as[i], as[j]);
+            if (mode == 3)
+                c = - c;
+        }
+        if (c != 0)
+            return c;
+        if (keys != null)
+            return Long.compare(keys[i], keys[j]);
+        if (names != null)
+            return names[i].compareTo(names[j]);
+        return Integer.compare(i, j);
+    }
+
+    /**
+     * Sorts the index permutation perm[from..to) by merge sort with work area tmp.
+     */
+    private void sortTerms(int[] perm, int[] tmp, int from, int to, int mode, long[] keys, String[] names) {
+        if (to - from <= 8) {
+            for (int i = from + 1; i < to; i++) {
+                int t = perm[i];
+                int j = i - 1;
+                while (j >= from && compareTerms(perm[j], t, mode, keys, names) > 0) {
+                    perm[j+1] = perm[j];
+                    j--;
+                }
+                perm[j+1] = t;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortTerms(perm, tmp, from, mid, mode, keys, names);
+        sortTerms(perm, tmp, mid, to, mode, keys, names);
+        if (compareTerms(perm[mid-1], perm[mid], mode, keys, names) <= 0)
+            return;
+        System.arraycopy(perm, from, tmp, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compareTerms(tmp[i], tmp[j], mode, keys, names) <= 0))
+                perm[k] = tmp[i++];
+            else
+                perm[k] = tmp[j++];
+        }
+    }
+
+    /**
+     * Returns the positions (from 0) of the terms sorted by literal name (sortCoef == 1),
+     * or by coefficient in ascending (2) or descending (3) order and then by literal name.
+     */
+    int[] sortedTerms(int sortCoef) {
+        int n = size();
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++)
+            perm[i] = i;
+        if (sortCoef >= 1 && sortCoef <= 3 && n > 1) {
+            long[] keys = PBLiteral.orderKeys(xs);
+            String[] names = null;
+            if (keys == null) {
+                names = new String[n];
+                for (int i = 0; i < n; i++)
+                    names[i] = PBLiteral.toString(xs[i]);
+            }
+            sortTerms(perm, new int[n], 0, n, sortCoef, keys, names);
+        }
+        return perm;
+    }
+
+    void sortByCoef(int sortCoef) {
+        int n = size();
+        if (sortCoef >= 1 && sortCoef <= 3 && n > 1) {
+            int[] perm = sortedTerms(sortCoef);
+            int[] xs = new int[n];
+            for (int i = 0; i < n; i++)
+                xs[i] = this.xs[perm[i]];
+            if (isBig()) {
+                List<BigInteger> as = new ArrayList<BigInteger>(n);
+                for (int i = 0; i < n; i++)
+                    as.add(bigAs.get(perm[i]));
+                this.bigAs = as;
+            } else {
+                long[] as = new long[n];
+                for (int i = 0; i < n; i++)
+                    as[i] = this.as[perm[i]];
+                this.as = as;
             }
-            this.as = as;
             this.xs = xs;
         }
     }
-    
+
+    /**
+     * Returns the positions (from 0) of the terms in the descending order of coefficients.
+     */
+    int[] termsByCoef() {
+        int n = size();
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++)
+            perm[i] = i;
+        sortTerms(perm, new int[n], 0, n, 3, null, null);
+        return perm;
+    }
+
     public int size() {
-        return as.size();
+        return xs.length;
     }
-    
+
     public List<BigInteger> as() {
+        if (isBig())
+            return bigAs;
+        List<BigInteger> as = new ArrayList<BigInteger>(this.as.length);
+        for (long a : this.as)
+            as.add(BigInteger.valueOf(a));
         return as;
     }
 
-    public List<PBLiteral> xs() {
+    public int[] xs() {
         return xs;
     }
 
     public BigInteger a(int i) {
         assert(i >= 1 && i <= size());
-        return as.get(i-1);
+        return isBig() ? bigAs.get(i-1) : BigInteger.valueOf(as[i-1]);
     }
 
-    public PBLiteral x(int i) {
+    public int x(int i) {
         assert(i >= 1 && i <= size());
-        return xs.get(i-1);
+        return xs[i-1];
     }
 
     public String cmp() {
@@ -263,35 +580,99 @@ public class PBConstraint {
     }
 
     public BigInteger b() {
+        return isBig() ? bigB : BigInteger.valueOf(b);
+    }
+
+    /**
+     * Coefficients in long (only when ! isBig()).
+     */
+    public long[] longAs() {
+        assert(! isBig());
+        return as;
+    }
+
+    public long longA(int i) {
+        assert(! isBig());
+        assert(i >= 1 && i <= size());
+        return as[i-1];
+    }
+
+    public long longB() {
+        assert(! isBig());
         return b;
     }
 
     public BigInteger ubLHS() {
+        if (! isBig())
+            return BigInteger.valueOf(longUbLHS());
         BigInteger s = BigInteger.ZERO;
-        for (BigInteger a : as) {
+        for (BigInteger a : bigAs) {
             s = s.add(a);
         }
         return s;
     }
 
+    /**
+     * The sum is cached, since it is used by every validity check.
+     */
+    public long longUbLHS() {
+        assert(! isBig());
+        if (ubLHS == NO_BOUND) {
+            long s = 0;
+            for (long a : as) {
+                s += a;
+            }
+            ubLHS = s;
+        }
+        return ubLHS;
+    }
+
+    private boolean isValidUnder(long lb, long ub) {
+        return isValidUnder(cmp, b, lb, ub);
+    }
+
+    static boolean isValidUnder(String cmp, long b, long lb, long ub) {
+        if (cmp.equals(LE)) {
+            return ub <= b;
+        } else if (cmp.equals(GE)) {
+            return lb >= b;
+        } else if (cmp.equals(EQ)){
+            return ub <= b && lb >= b;
+        } else { // cmp.equals(NE)
+            return lb > b || ub < b;
+        }
+    }
+
     private boolean isValidUnder(BigInteger lb, BigInteger ub) {
         if (cmp.equals(LE)) {
-            return ub.compareTo(b) <= 0;
+            return ub.compareTo(bigB) <= 0;
         } else if (cmp.equals(GE)) {
-            return lb.compareTo(b) >= 0;
+            return lb.compareTo(bigB) >= 0;
         } else if (cmp.equals(EQ)){
-            return ub.compareTo(b) <= 0 && lb.compareTo(b) >= 0;
+            return ub.compareTo(bigB) <= 0 && lb.compareTo(bigB) >= 0;
         } else { // cmp.equals(NE)
-            return lb.compareTo(b) > 0 || ub.compareTo(b) < 0;
+            return lb.compareTo(bigB) > 0 || ub.compareTo(bigB) < 0;
         }
     }
-    
+
     public boolean isValid() {
+        if (! isBig())
+            return isValidUnder(0, longUbLHS());
         return isValidUnder(BigInteger.ZERO, ubLHS());
     }
-    
+
     public boolean isValidWhen(int i, int value) {
         assert(value == 0 || value == 1);
+        if (! isBig()) {
+            long lb = 0;
+            long ub = longUbLHS();
+            if (value == 0) {
+                ub -= as[i-1];
+            } else {
+                lb += as[i-1];
+            }
+            return isValidUnder(lb, ub);
+        }
         BigInteger lb = BigInteger.ZERO;
         BigInteger ub = ubLHS();
         if (value == 0) {
@@ -301,25 +682,53 @@ public class PBConstraint {
         }
         return isValidUnder(lb, ub);
     }
-    
+
+    private boolean isUnsatUnder(long lb, long ub) {
+        return isUnsatUnder(cmp, b, lb, ub);
+    }
+
+    static boolean isUnsatUnder(String cmp, long b, long lb, long ub) {
+        if (cmp.equals(LE)) {
+            return lb > b;
+        } else if (cmp.equals(GE)) {
+            return ub < b;
+        } else if (cmp.equals(EQ)){
+            return lb > b || ub < b;
+        } else { // cmp.equals(NE)
+            return ub <= b && lb >= b;
+        }
+    }
+
     private boolean isUnsatUnder(BigInteger lb, BigInteger ub) {
         if (cmp.equals(LE)) {
-            return lb.compareTo(b) > 0;
+            return lb.compareTo(bigB) > 0;
         } else if (cmp.equals(GE)) {
-            return ub.compareTo(b) < 0;
+            return ub.compareTo(bigB) < 0;
         } else if (cmp.equals(EQ)){
-            return lb.compareTo(b) > 0 || ub.compareTo(b) < 0; 
+            return lb.compareTo(bigB) > 0 || ub.compareTo(bigB) < 0;
         } else { // cmp.equals(NE)
-            return ub.compareTo(b) <= 0 && lb.compareTo(b) >= 0;
+            return ub.compareTo(bigB) <= 0 && lb.compareTo(bigB) >= 0;
         }
     }
-    
+
     public boolean isUnsat() {
+        if (! isBig())
+            return isUnsatUnder(0, longUbLHS());
         return isUnsatUnder(BigInteger.ZERO, ubLHS());
     }
 
     public boolean isUnsatWhen(int i, int value) {
         assert(value == 0 || value == 1);
+        if (! isBig()) {
+            long lb = 0;
+            long ub = longUbLHS();
+            if (value == 0) {
+                ub -= as[i-1];
+            } else {
+                lb += as[i-1];
+            }
+            return isUnsatUnder(lb, ub);
+        }
         BigInteger lb = BigInteger.ZERO;
         BigInteger ub = ubLHS();
         if (value == 0) {
@@ -329,21 +738,35 @@ public class PBConstraint {
         }
         return isUnsatUnder(lb, ub);
     }
-    
-    public BigInteger lhs(Set<String> pbSolution) {
-        BigInteger lhs = BigInteger.ZERO;
+
+    /**
+     * The solution is given as the set of variable numbers assigned to true.
+     */
+    public BigInteger lhs(BitSet pbSolution) {
         int n = size();
+        if (! isBig()) {
+            long lhs = 0;
+            for (int i = 0; i < n; i++) {
+                int x = xs[i];
+                if (pbSolution.get(PBLiteral.getVariable(x)) ^ PBLiteral.isNegative(x)) {
+                    lhs += as[i];
+                }
+            }
+            return BigInteger.valueOf(lhs);
+        }
+        BigInteger lhs = BigInteger.ZERO;
         for (int i = 0; i < n; i++) {
-            PBLiteral x = xs.get(i); 
-            if (pbSolution.contains(x.getVariable()) ^ x.isNegative()) {
-                lhs = lhs.add(as.get(i));
+            int x = xs[i];
+            if (pbSolution.get(PBLiteral.getVariable(x)) ^ PBLiteral.isNegative(x)) {
+                lhs = lhs.add(bigAs.get(i));
             }
         }
         return lhs;
     }
-    
-    public boolean isSatisfied(Set<String> pbSolution) {
+
+    public boolean isSatisfied(BitSet pbSolution) {
         BigInteger lhs = lhs(pbSolution);
+        BigInteger b = b();
         if (cmp.equals(LE)) {
             return lhs.compareTo(b) <= 0;
         } else if (cmp.equals(GE)) {
@@ -354,62 +777,181 @@ public class PBConstraint {
             return lhs.compareTo(b) != 0;
         }
     }
-    
+
+    public PBConstraint[] divideAndRemainder(long p) {
+        if (isBig())
+            return divideAndRemainder(BigInteger.valueOf(p));
+        int n = size();
+        long[] as0 = new long[n];
+        long[] as1 = new long[n];
+        int[] xs0 = new int[n];
+        int[] xs1 = new int[n];
+        int n0 = 0;
+        int n1 = 0;
+        for (int i = 0; i < n; i++) {
+            long d = as[i] / p;
+            long r = as[i] % p;
+            if (d > 0) {
+                as0[n0] = d;
+                xs0[n0++] = xs[i];
+            }
+            if (r > 0) {
+                as1[n1] = r;
+                xs1[n1++] = xs[i];
+            }
+        }
+        long b0 = b / p;
+        long b1 = b % p;
+        PBConstraint pb0 = new PBConstraint(Arrays.copyOf(as0, n0), Arrays.copyOf(xs0, n0), cmp, b0);
+        PBConstraint pb1 = new PBConstraint(Arrays.copyOf(as1, n1), Arrays.copyOf(xs1, n1), cmp, b1);
+        return new PBConstraint[] { pb0, pb1 };
+    }
+
     public PBConstraint[] divideAndRemainder(BigInteger p) {
+        if (! isBig() && p.bitLength() < 63)
+            return divideAndRemainder(p.longValue());
+        List<BigInteger> as = as();
         List<BigInteger> as0 = new ArrayList<BigInteger>();
-        List<PBLiteral> xs0 = new ArrayList<PBLiteral>();
         List<BigInteger> as1 = new ArrayList<BigInteger>();
-        List<PBLiteral> xs1 = new ArrayList<PBLiteral>();
         int n = size();
+        int[] xs0 = new int[n];
+        int[] xs1 = new int[n];
+        int n0 = 0;
+        int n1 = 0;
         for (int i = 0; i < n; i++) {
             BigInteger[] dr = as.get(i).divideAndRemainder(p);
             if (dr[0].signum() > 0) {
                 as0.add(dr[0]);
-                xs0.add(xs.get(i));
+                xs0[n0++] = xs[i];
             }
             if (dr[1].signum() > 0) {
                 as1.add(dr[1]);
-                xs1.add(xs.get(i));
+                xs1[n1++] = xs[i];
             }
         }
-        BigInteger[] dr = b.divideAndRemainder(p);
+        BigInteger[] dr = b().divideAndRemainder(p);
         BigInteger b0 = dr[0];
         BigInteger b1 = dr[1];
-        PBConstraint pb0 = new PBConstraint(as0, xs0, cmp, b0);
-        PBConstraint pb1 = new PBConstraint(as1, xs1, cmp, b1);
+        PBConstraint pb0 = new PBConstraint(as0, Arrays.copyOf(xs0, n0), cmp, b0);
+        PBConstraint pb1 = new PBConstraint(as1, Arrays.copyOf(xs1, n1), cmp, b1);
         return new PBConstraint[] { pb0, pb1 };
     }
 
+    /**
+     * Returns the constraint where the i-th literal is fixed to values[i-1] (0 or 1),
+     * or is kept when values[i-1] is negative.
+     */
+    public PBConstraint fix(int[] values) {
+        int n = size();
+        int[] xs = new int[n];
+        int m = 0;
+        if (! isBig()) {
+            long[] as = new long[n];
+            long b = this.b;
+            for (int i = 0; i < n; i++) {
+                if (values[i] < 0) {
+                    as[m] = this.as[i];
+                    xs[m++] = this.xs[i];
+                } else if (values[i] > 0) {
+                    b -= this.as[i];
+                }
+            }
+            return new PBConstraint(Arrays.copyOf(as, m), Arrays.copyOf(xs, m), cmp, b);
+        }
+        List<BigInteger> as = new ArrayList<BigInteger>();
+        BigInteger b = this.bigB;
+        for (int i = 0; i < n; i++) {
+            if (values[i] < 0) {
+                as.add(bigAs.get(i));
+                xs[m++] = this.xs[i];
+            } else if (values[i] > 0) {
+                b = b.subtract(bigAs.get(i));
+            }
+        }
+        return new PBConstraint(as, Arrays.copyOf(xs, m), cmp, b);
+    }
+
+    public PBConstraint fix(int i, int value) {
+        int[] values = new int[size()];
+        Arrays.fill(values, -1);
+        values[i-1] = value;
+        return fix(values);
+    }
+
+    /**
+     * Returns the equivalent constraint over the negated literals.
+     * a(1)*x(1) + ... + a(n)*x(n) <= b ==> a(1)*~x(1) + ... + a(n)*~x(n) >= a(1) + ... + a(n) - b
+     */
+    public PBConstraint complement() {
+        int n = size();
+        int[] xs = new int[n];
+        for (int i = 0; i < n; i++)
+            xs[i] = PBLiteral.negate(this.xs[i]);
+        String cmp = this.cmp;
+        if (cmp.equals(LE))
+            cmp = GE;
+        else if (cmp.equals(GE))
+            cmp = LE;
+        if (! isBig())
+            return new PBConstraint(as, xs, cmp, longUbLHS() - b);
+        return new PBConstraint(bigAs, xs, cmp, ubLHS().subtract(bigB));
+    }
+
+    public PBConstraint setCmp(String cmp) {
+        if (! isBig())
+            return new PBConstraint(as, xs, cmp, b);
+        return new PBConstraint(bigAs, xs, cmp, bigB);
+    }
+
     public PBConstraint addXs(List<String> xs1) {
-        List<BigInteger> as = new ArrayList<BigInteger>(this.as);
-        List<PBLiteral> xs = new ArrayList<PBLiteral>(this.xs);
+        int n = size();
+        int[] xs = Arrays.copyOf(this.xs, n + xs1.size());
+        for (int i = 0; i < xs1.size(); i++) {
+            xs[n + i] = PBLiteral.variable(xs1.get(i));
+        }
+        if (! isBig()) {
+            long[] as = Arrays.copyOf(this.as, xs.length);
+            Arrays.fill(as, n, xs.length, 1);
+            return new PBConstraint(as, xs, cmp, b);
+        }
+        List<BigInteger> as = new ArrayList<BigInteger>(this.bigAs);
         for (int i = 0; i < xs1.size(); i++) {
             as.add(BigInteger.ONE);
-            xs.add(new PBLiteral(xs1.get(i)));
         }
-        PBConstraint pb = new PBConstraint(as, xs, cmp, b);
+        PBConstraint pb = new PBConstraint(as, xs, cmp, bigB);
         return pb;
     }
-    
-    
+
+    public PBConstraint addB(long b1) {
+        if (! isBig())
+            return new PBConstraint(as, xs, cmp, b + b1);
+        return addB(BigInteger.valueOf(b1));
+    }
+
     public PBConstraint addB(BigInteger b1) {
-        PBConstraint pb = new PBConstraint(as, xs, cmp, b.add(b1));
+        PBConstraint pb = new PBConstraint(as(), xs, cmp, b().add(b1));
         return pb;
     }
-    
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         int n = size();
         for (int i = 0; i < n; i++) {
-            if (as.get(i).signum() >= 0)
-                sb.append("+");
-            sb.append(as.get(i).toString());
+            if (isBig()) {
+                if (bigAs.get(i).signum() >= 0)
+                    sb.append("+");
+                sb.append(bigAs.get(i).toString());
+            } else {
+                if (as[i] >= 0)
+                    sb.append("+");
+                sb.append(as[i]);
+            }
             sb.append(" ");
-            sb.append(xs.get(i).toString());
+            sb.append(PBLiteral.toString(xs[i]));
             sb.append(" ");
         }
         sb.append(cmp + " ");
-        sb.append(b.toString());
+        sb.append(isBig() ? bigB.toString() : Long.toString(b));
         return sb.toString();
     }
 
@@ -0,0 +1,83 @@
+package pbsugar.pb;
+
+import java.util.Random;
+
+/**
+ * Measures PBConstraint.normalize (with sorting off) on constraints of 10^3, 10^4 and 10^5 terms,
+ * where each variable occurs about twice, against the previous merge of duplicate variables,
+ * which searched the variables merged so far for each term.
+ * Usage: java pbsugar.pb.PBConstraintBench [runs]
+ */
+public class PBConstraintBench {
+    /**
+     * Merges duplicate variables as normalizeVariables did before the index table,
+     * and returns the number of remaining terms.
+     */
+    private static int oldMerge(long[] as0, int[] xs0) {
+        int n = xs0.length;
+        long[] as = new long[n];
+        int[] xs = new int[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            long a = as0[i];
+            int x = xs0[i];
+            if (PBLiteral.isNegative(x)) {
+                a = -a;
+                x = PBLiteral.negate(x);
+            }
+            boolean found = false;
+            for (int j = 0; j < m; j++) {
+                if (x == xs[j]) {
+                    found = true;
+                    as[j] += a;
+                }
+            }
+            if (! found) {
+                as[m] = a;
+                xs[m++] = x;
+            }
+        }
+        return m;
+    }
+
+    private static PBConstraint randomConstraint(int size, Random random) {
+        long[] as = new long[size];
+        int[] xs = new int[size];
+        for (int i = 0; i < size; i++) {
+            int v = 1 + random.nextInt(size / 2);
+            as[i] = 1 + random.nextInt(1000);
+            xs[i] = random.nextBoolean() ? v : -v;
+        }
+        return new PBConstraint(as, xs, PBConstraint.GE, size);
+    }
+
+    /**
+     * Normalizes a random constraint of the size, and returns the elapsed nanoseconds.
+     */
+    private static long run(boolean old, int size, long seed) {
+        PBConstraint pb = randomConstraint(size, new Random(seed));
+        long time = System.nanoTime();
+        if (old)
+            oldMerge(pb.longAs(), pb.xs());
+        else
+            pb.normalize(0);
+        return System.nanoTime() - time;
+    }
+
+    public static void main(String[] args) {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        System.out.println("best of " + runs + " runs (after as many warm-up runs)");
+        System.out.printf("%8s %12s %12s%n", "terms", "old merge", "normalize");
+        for (int size = 1000; size <= 100000; size *= 10) {
+            long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+            for (int k = 0; k < 2; k++) {
+                boolean old = k == 0;
+                for (int rep = 0; rep < runs; rep++)
+                    run(old, size, -rep);
+                for (int rep = 1; rep <= runs; rep++)
+                    best[k] = Math.min(best[k], run(old, size, rep));
+            }
+            System.out.printf("%8d %9.2f ms %9.2f ms%n", size, best[0] / 1e6, best[1] / 1e6);
+        }
+    }
+}
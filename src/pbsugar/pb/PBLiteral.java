@@ -1,60 +1,160 @@
 package pbsugar.pb;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PB literals are represented by signed int values as in DIMACS,
+ * that is, v and -v are the positive and negative literals of the variable v.
+ * Variables are numbered densely from 1 when their names are registered,
+ * and this class keeps the table between names and numbers.
+ */
 public class PBLiteral {
-    private String x;
-    private boolean negative;
+    private static Map<String,Integer> variableMap = new HashMap<String,Integer>();
+    private static String[] names = new String[1024];
+    private static long[] keys = new long[1024];
+    private static int variablesCount = 0;
+
+    public static synchronized int variable(String name) {
+        Integer v = variableMap.get(name);
+        if (v == null) {
+            v = ++variablesCount;
+            if (v >= names.length) {
+                names = Arrays.copyOf(names, 2 * names.length);
+                keys = Arrays.copyOf(keys, 2 * keys.length);
+            }
+            names[v] = name;
+            keys[v] = orderKey(name);
+            variableMap.put(name, v);
+        }
+        return v;
+    }
 
-    public PBLiteral(String x, boolean negative) {
-        this.x = x;
-        this.negative = negative;
+    public static synchronized String name(int v) {
+        if (v < 1 || v > variablesCount)
+            throw new IllegalArgumentException("Variable not found " + v);
+        return names[v];
     }
 
-    public PBLiteral(String x) {
-        this(x, false);
+    public static synchronized int variablesCount() {
+        return variablesCount;
     }
 
-    public String getVariable() {
-        return x;
+    public static int literal(String name, boolean negative) {
+        int v = variable(name);
+        return negative ? -v : v;
     }
-    
-    public boolean isNegative() {
-        return negative;
+
+    public static int getVariable(int lit) {
+        return lit < 0 ? -lit : lit;
     }
 
-    public PBLiteral negate() {
-        return new PBLiteral(x, ! negative);
+    public static boolean isNegative(int lit) {
+        return lit < 0;
+    }
+
+    public static int negate(int lit) {
+        return -lit;
+    }
+
+    public static String toString(int lit) {
+        return lit < 0 ? "~" + name(-lit) : name(lit);
+    }
+
+    private static long xNumber(String name) {
+        int len = name.length();
+        if (len < 2 || len > 19 || name.charAt(0) != 'x')
+            return -1;
+        long k = 0;
+        for (int i = 1; i < len; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            k = 10 * k + (c - '0');
+        }
+        return k;
+    }
+
+    private static final int KEY_DIGITS = 17;
+    private static final long NEGATIVE_KEY = pow(11, KEY_DIGITS);
+
+    private static long pow(long a, int k) {
+        long p = 1;
+        for (int i = 0; i < k; i++)
+            p *= a;
+        return p;
     }
 
-    @Override
-    public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + (negative ? 1231 : 1237);
-        result = prime * result + ((x == null) ? 0 : x.hashCode());
-        return result;
+    /**
+     * Names of the form "x123" are mapped to keys in the lexicographic order of the names,
+     * by reading digits as 1..10 in base 11 with 0 padding after the last digit.
+     * Other names have no key (-1).
+     */
+    private static long orderKey(String name) {
+        int len = name.length();
+        if (len < 2 || len > KEY_DIGITS + 1 || name.charAt(0) != 'x')
+            return -1;
+        long k = 0;
+        for (int i = 1; i <= KEY_DIGITS; i++) {
+            int d = 0;
+            if (i < len) {
+                char c = name.charAt(i);
+                if (c < '0' || c > '9')
+                    return -1;
+                d = c - '0' + 1;
+            }
+            k = 11 * k + d;
+        }
+        return k;
     }
 
-    @Override
-    public boolean equals(Object obj) {
-        if (this == obj)
-            return true;
-        if (obj == null)
-            return false;
-        if (getClass() != obj.getClass())
-            return false;
-        PBLiteral other = (PBLiteral) obj;
-        if (negative != other.negative)
-            return false;
-        if (x == null) {
-            if (other.x != null)
-                return false;
-        } else if (!x.equals(other.x))
-            return false;
-        return true;
+    /**
+     * Returns keys of the literals ordered in the same way as their names
+     * ("~x..." follows all "x..." since '~' > 'x'),
+     * or null when some literal has a name other than "x123".
+     */
+    public static synchronized long[] orderKeys(int[] lits) {
+        long[] ks = new long[lits.length];
+        for (int i = 0; i < lits.length; i++) {
+            long k = keys[getVariable(lits[i])];
+            if (k < 0)
+                return null;
+            ks[i] = isNegative(lits[i]) ? NEGATIVE_KEY + k : k;
+        }
+        return ks;
     }
 
-    @Override
-    public String toString() {
-        return negative ? "~" + x : x;
+    /**
+     * Sorts the first n variables of vs by their names.
+     * Names of the form "x123" come first in the order of their numbers,
+     * and other names follow in the lexicographic order.
+     */
+    public static int[] sortVariables(int[] vs, int n) {
+        final String[] names = new String[n];
+        final long[] keys = new long[n];
+        Integer[] index = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = name(vs[i]);
+            keys[i] = xNumber(names[i]);
+            index[i] = i;
+        }
+        Arrays.sort(index, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i0, Integer i1) {
+                long k0 = keys[i0];
+                long k1 = keys[i1];
+                if (k0 >= 0 && k1 >= 0 && k0 != k1)
+                    return k0 < k1 ? -1 : 1;
+                if ((k0 >= 0) != (k1 >= 0))
+                    return k0 >= 0 ? -1 : 1;
+                return names[i0].compareTo(names[i1]);
+            }
+        });
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = vs[index[i]];
+        return sorted;
     }
 }
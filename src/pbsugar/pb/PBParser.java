@@ -1,77 +1,224 @@
 package pbsugar.pb;
 
-import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StreamTokenizer;
-import java.io.UnsupportedEncodingException;
+import java.io.InterruptedIOException;
 import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class PBParser {
-    // private BufferedReader reader = null;
-    private StreamTokenizer st = null;
+    public static int THREADS = 1;
+    public static long CHUNK_SIZE = 8*1024*1024;
+
+    private FileChannel channel = null;
+    private PBScanner st = null;
     private String headerLine;
     public int variables;
     public int constraints;
-    
-    public PBParser(BufferedReader reader) throws IOException {
-        // this.reader = reader;
-        headerLine = reader.readLine();
+    // Objective function of "min:" as the left-hand side of objective <= 0 (null when not given)
+    public PBConstraint objective = null;
+    private int[] xVariables;
+    private long[] as = new long[16];
+    private int[] xs = new int[16];
+    private BigInteger bigNumber = null;
+    // Coefficients (when some of them does not fit in a long) and comparison given by parseTerms
+    private List<BigInteger> bigAs = null;
+    private String cmp = null;
+    private ExecutorService executor = null;
+    private Deque<Future<List<PBConstraint>>> chunks = null;
+    private Iterator<PBConstraint> chunk = null;
+    private long chunkStart;
+    private long size;
+    private long start = 0;
+
+    public PBParser(String fileName) throws IOException {
+        this(fileName, THREADS);
+    }
+
+    /**
+     * When threads > 1, the file is split into chunks at constraint boundaries,
+     * and the chunks are parsed in parallel.
+     * Constraints are returned by getNext() in their original order.
+     */
+    public PBParser(String fileName, int threads) throws IOException {
+        channel = (new FileInputStream(fileName)).getChannel();
+        st = new PBScanner(channel);
+        headerLine = st.readLine();
         if (headerLine == null || ! headerLine.startsWith("* ") ||
-                ! headerLine.matches("\\*\\s+#variable=\\s+\\d+\\s+#constraint=\\s+\\d+\\s*"))
-            throw new IllegalArgumentException("Invalid header line : " + reader);
+                ! headerLine.matches("\\*\\s+#variable=\\s+\\d+\\s+#constraint=\\s+\\d+\\s*")) {
+            channel.close();
+            throw new IllegalArgumentException("Invalid header line : " + fileName);
+        }
         String[] s = headerLine.split("\\s+");
         variables = Integer.parseInt(s[2]);
         constraints = Integer.parseInt(s[4]);
-        st = new StreamTokenizer(reader);
-        st.resetSyntax();
-        st.whitespaceChars(0x0000, 0x0020);
-        st.wordChars('A', 'Z');
-        st.wordChars('a', 'z');
-        st.wordChars('_', '_');
-        st.wordChars('0', '9');
-        st.commentChar('*');
-        st.eolIsSignificant(false);
+        xVariables = new int[variables + 1];
+        long offset = st.offset();
         st.nextToken();
+        if (st.ttype == PBScanner.TT_WORD && st.sval().equals("min")) {
+            objective = parseObjective();
+            offset = st.offset();
+            st.nextToken();
+        }
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PBParser");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            chunks = new ArrayDeque<Future<List<PBConstraint>>>();
+            chunkStart = offset;
+            size = channel.size();
+            st = null;
+            for (int i = 0; i < 2 * threads; i++)
+                submitChunk();
+        }
+    }
+
+    private PBParser(FileChannel channel, long start, long end, int variables) throws IOException {
+        this.channel = channel;
+        this.variables = variables;
+        this.start = start;
+        st = new PBScanner(channel, start, end);
+        xVariables = new int[variables + 1];
+        st.nextToken();
+    }
+
+    public void close() throws IOException {
+        if (executor != null)
+            executor.shutdownNow();
+        channel.close();
+    }
+
+    private boolean submitChunk() throws IOException {
+        if (chunkStart >= size)
+            return false;
+        final long start = chunkStart;
+        long end = start + CHUNK_SIZE;
+        if (end >= size)
+            end = size;
+        else
+            end = new PBScanner(channel, end, size).nextBoundary();
+        chunkStart = end;
+        final long end1 = end;
+        chunks.add(executor.submit(new Callable<List<PBConstraint>>() {
+            @Override
+            public List<PBConstraint> call() throws IOException {
+                PBParser parser = new PBParser(channel, start, end1, variables);
+                List<PBConstraint> pbs = new ArrayList<PBConstraint>();
+                while (true) {
+                    PBConstraint pb = parser.getNext();
+                    if (pb == null)
+                        break;
+                    pbs.add(pb);
+                }
+                return pbs;
+            }
+        }));
+        return true;
+    }
+
+    private PBConstraint getNextChunked() throws IOException {
+        while (chunk == null || ! chunk.hasNext()) {
+            Future<List<PBConstraint>> future = chunks.poll();
+            if (future == null)
+                return null;
+            submitChunk();
+            try {
+                chunk = future.get().iterator();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException)cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                throw new IllegalStateException(cause);
+            }
+        }
+        return chunk.next();
     }
 
-    public PBParser(String fileName) throws UnsupportedEncodingException, IOException {
-        this(new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8")));
+    private IllegalArgumentException formatError() {
+        if (start > 0)
+            return new IllegalArgumentException("Format error at line " + st.lineno() + " of the chunk at byte " + start);
+        return new IllegalArgumentException("Format error at line " + st.lineno());
     }
-    
-    private BigInteger parseBigInteger() throws IOException {
-        BigInteger a = BigInteger.ONE;  
+
+    /**
+     * Parses an optional signed number (1 when omitted).
+     * When the value does not fit in a long, bigNumber is set to the value.
+     */
+    private long parseNumber() throws IOException {
+        long a = 1;
+        bigNumber = null;
         if (st.ttype == '-' || st.ttype == '+') {
             boolean negative = st.ttype == '-';
             st.nextToken();
-            if (st.ttype != StreamTokenizer.TT_WORD || ! st.sval.matches("\\d+"))
-                throw new IllegalArgumentException("Format error at line " + st.lineno());
-            a = negative ? new BigInteger("-" + st.sval) : new BigInteger(st.sval);
+            if (st.ttype != PBScanner.TT_NUMBER)
+                throw formatError();
+            a = negative ? - st.nval : st.nval;
+            if (st.bval != null)
+                bigNumber = negative ? st.bval.negate() : st.bval;
             st.nextToken();
-        } else if (st.ttype == StreamTokenizer.TT_WORD && st.sval.matches("\\d+")) {
-            a = new BigInteger(st.sval);
+        } else if (st.ttype == PBScanner.TT_NUMBER) {
+            a = st.nval;
+            bigNumber = st.bval;
             st.nextToken();
         }
         return a;
     }
-    
-    private PBLiteral parseLiteral() throws IOException {
-        PBLiteral x = null;
+
+    /**
+     * Variable numbers of "x123" are cached in this parser,
+     * so that the name is converted to a String only at its first occurrence.
+     */
+    private int literal(boolean negative) {
+        int v;
+        int k = st.xIndex();
+        if (k >= 0) {
+            if (k >= xVariables.length)
+                xVariables = Arrays.copyOf(xVariables, Math.max(k + 1, 2 * xVariables.length));
+            v = xVariables[k];
+            if (v == 0) {
+                v = PBLiteral.variable(st.sval());
+                xVariables[k] = v;
+            }
+        } else {
+            v = PBLiteral.variable(st.sval());
+        }
+        return negative ? PBLiteral.negate(v) : v;
+    }
+
+    private int parseLiteral() throws IOException {
         boolean negative = false;
         if (st.ttype == '~') {
             negative = true;
             st.nextToken();
         }
-        if (st.ttype != StreamTokenizer.TT_WORD || st.sval.matches("\\d+"))
-            throw new IllegalArgumentException("Format error at line " + st.lineno());
-        x = new PBLiteral(st.sval, negative);
+        if (st.ttype != PBScanner.TT_WORD)
+            throw formatError();
+        int x = literal(negative);
         st.nextToken();
         return x;
     }
-    
+
     private String parseCmp() throws IOException {
         String cmp = null;
         int t = st.ttype;
@@ -88,7 +235,7 @@ public class PBParser {
         case '!':
             st.nextToken();
             if (st.ttype != '=')
-                throw new IllegalArgumentException("Format error at line " + st.lineno());
+                throw formatError();
             st.nextToken();
             break;
         case '=':
@@ -98,27 +245,78 @@ public class PBParser {
         }
         return cmp;
     }
-    
+
+    /**
+     * Parses terms into as and xs (and bigAs) up to a comparison (when withCmp is set)
+     * or up to the ';' (which is left as the current token) of the objective,
+     * and returns the number of terms.
+     */
+    private int parseTerms(boolean withCmp) throws IOException {
+        bigAs = null;
+        cmp = null;
+        int n = 0;
+        while (withCmp ? st.ttype != PBScanner.TT_EOF && cmp == null : st.ttype != ';') {
+            if (st.ttype == PBScanner.TT_EOF)
+                throw formatError();
+            long a = parseNumber();
+            if (bigNumber != null && bigAs == null) {
+                bigAs = new ArrayList<BigInteger>();
+                for (int i = 0; i < n; i++)
+                    bigAs.add(BigInteger.valueOf(as[i]));
+            }
+            int x = parseLiteral();
+            if (n == xs.length) {
+                as = Arrays.copyOf(as, 2 * n);
+                xs = Arrays.copyOf(xs, 2 * n);
+            }
+            if (bigAs != null)
+                bigAs.add(bigNumber != null ? bigNumber : BigInteger.valueOf(a));
+            as[n] = a;
+            xs[n++] = x;
+            if (withCmp)
+                cmp = parseCmp();
+        }
+        return n;
+    }
+
+    /**
+     * Parses the terms of "min: ... ;" up to the ';' (which is left as the current token).
+     */
+    private PBConstraint parseObjective() throws IOException {
+        st.nextToken();
+        if (st.ttype != ':')
+            throw formatError();
+        st.nextToken();
+        int n = parseTerms(false);
+        if (bigAs != null)
+            return new PBConstraint(bigAs, Arrays.copyOf(xs, n), PBConstraint.LE, BigInteger.ZERO);
+        return new PBConstraint(Arrays.copyOf(as, n), Arrays.copyOf(xs, n), PBConstraint.LE, 0);
+    }
+
     public PBConstraint getNext() throws IOException {
-        if (st == null || st.ttype == StreamTokenizer.TT_EOF) {
+        if (chunks != null)
+            return getNextChunked();
+        if (st == null || st.ttype == PBScanner.TT_EOF) {
             st = null;
             return null;
-        }            
-        List<BigInteger> as = new ArrayList<BigInteger>();
-        List<PBLiteral> xs = new ArrayList<PBLiteral>();
-        String cmp = null;
-        while (st.ttype != StreamTokenizer.TT_EOF && cmp == null) {
-            BigInteger a = parseBigInteger();
-            PBLiteral x = parseLiteral();
-            as.add(a);
-            xs.add(x);
-            cmp = parseCmp();
         }
-        BigInteger b = parseBigInteger();
+        int n = parseTerms(true);
+        long b = parseNumber();
+        BigInteger bigB = bigNumber;
         if (st.ttype != ';')
-            throw new IllegalArgumentException("Format error at line " + st.lineno());
+            throw formatError();
         st.nextToken();
-        PBConstraint pb = new PBConstraint(as, xs, cmp, b);
+        if (bigAs != null || bigB != null) {
+            if (bigAs == null) {
+                bigAs = new ArrayList<BigInteger>();
+                for (int i = 0; i < n; i++)
+                    bigAs.add(BigInteger.valueOf(as[i]));
+            }
+            if (bigB == null)
+                bigB = BigInteger.valueOf(b);
+            return new PBConstraint(bigAs, Arrays.copyOf(xs, n), cmp, bigB);
+        }
+        PBConstraint pb = new PBConstraint(Arrays.copyOf(as, n), Arrays.copyOf(xs, n), cmp, b);
         return pb;
     }
 
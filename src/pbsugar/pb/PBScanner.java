@@ -0,0 +1,202 @@
+package pbsugar.pb;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level scanner of OPB files over a memory-mapped FileChannel.
+ * Tokens are recognized in the same way as the StreamTokenizer used before:
+ * words consist of [A-Za-z_0-9], '*' starts a comment up to the end of line,
+ * and any other printable character is returned as a single character token.
+ * Numbers are accumulated into a long (BigInteger only when overflowed),
+ * and words are kept in a reusable byte array.
+ */
+public class PBScanner {
+    public static final int TT_EOF = -1;
+    public static final int TT_NUMBER = -2;
+    public static final int TT_WORD = -3;
+    public static long MAP_SIZE = 256*1024*1024;
+    private static final long LONG_LIMIT = (Long.MAX_VALUE - 9) / 10;
+
+    private FileChannel channel;
+    private long position;
+    private long end;
+    private ByteBuffer buffer = null;
+    private int c;
+    private int lineno = 1;
+
+    public int ttype;
+    public long nval;
+    public BigInteger bval;
+    private byte[] word = new byte[64];
+    private int wordLength = 0;
+
+    public PBScanner(FileChannel channel, long start, long end) throws IOException {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+        c = read();
+    }
+
+    public PBScanner(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
+
+    private boolean fill() throws IOException {
+        if (position >= end)
+            return false;
+        long size = Math.min(MAP_SIZE, end - position);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        position += size;
+        return true;
+    }
+
+    private int read() throws IOException {
+        if ((buffer == null || ! buffer.hasRemaining()) && ! fill())
+            return -1;
+        return buffer.get() & 0xff;
+    }
+
+    private static boolean isWordChar(int c) {
+        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z') ||
+            ('0' <= c && c <= '9') || c == '_';
+    }
+
+    public int lineno() {
+        return lineno;
+    }
+
+    private long consumed() {
+        return buffer == null ? position : position - buffer.remaining();
+    }
+
+    /**
+     * Returns the file offset of the next unread character.
+     */
+    public long offset() {
+        return c < 0 ? end : consumed() - 1;
+    }
+
+    /**
+     * Skips to the next line, and then to the first ';' outside of comments.
+     * Returns the offset just after the ';' (or the end of the range),
+     * which is a boundary between constraints.
+     */
+    public long nextBoundary() throws IOException {
+        while (c >= 0 && c != '\n')
+            c = read();
+        boolean comment = false;
+        while (c >= 0) {
+            if (c == '\n') {
+                comment = false;
+            } else if (c == '*') {
+                comment = true;
+            } else if (c == ';' && ! comment) {
+                return consumed();
+            }
+            c = read();
+        }
+        return end;
+    }
+
+    /**
+     * Reads the rest of the current line (used for the header line).
+     */
+    public String readLine() throws IOException {
+        if (c < 0)
+            return null;
+        wordLength = 0;
+        while (c >= 0 && c != '\n') {
+            if (c != '\r')
+                appendWord(c);
+            c = read();
+        }
+        if (c == '\n') {
+            lineno++;
+            c = read();
+        }
+        return sval();
+    }
+
+    private void appendWord(int c) {
+        if (wordLength == word.length) {
+            byte[] word1 = new byte[2 * word.length];
+            System.arraycopy(word, 0, word1, 0, wordLength);
+            word = word1;
+        }
+        word[wordLength++] = (byte)c;
+    }
+
+    public int nextToken() throws IOException {
+        while (true) {
+            if (c < 0) {
+                return ttype = TT_EOF;
+            } else if (c <= 0x20) {
+                if (c == '\n')
+                    lineno++;
+                c = read();
+            } else if (c == '*') {
+                while (c >= 0 && c != '\n')
+                    c = read();
+            } else {
+                break;
+            }
+        }
+        if (! isWordChar(c)) {
+            ttype = c;
+            c = read();
+            return ttype;
+        }
+        wordLength = 0;
+        boolean digits = true;
+        long value = 0;
+        bval = null;
+        do {
+            appendWord(c);
+            if ('0' <= c && c <= '9') {
+                if (digits && value <= LONG_LIMIT)
+                    value = 10 * value + (c - '0');
+                else if (digits)
+                    bval = BigInteger.ZERO;
+            } else {
+                digits = false;
+            }
+            c = read();
+        } while (c >= 0 && isWordChar(c));
+        if (! digits) {
+            bval = null;
+            return ttype = TT_WORD;
+        }
+        if (bval != null)
+            bval = new BigInteger(sval());
+        nval = value;
+        return ttype = TT_NUMBER;
+    }
+
+    /**
+     * Returns the number of the current word when it is of the form "x123"
+     * (without leading zeros), or -1 otherwise.
+     */
+    public int xIndex() {
+        if (ttype != TT_WORD || wordLength < 2 || wordLength > 10 || word[0] != 'x')
+            return -1;
+        if (word[1] == '0' && wordLength > 2)
+            return -1;
+        long k = 0;
+        for (int i = 1; i < wordLength; i++) {
+            int d = word[i] - '0';
+            if (d < 0 || d > 9)
+                return -1;
+            k = 10 * k + d;
+        }
+        return k <= Integer.MAX_VALUE ? (int)k : -1;
+    }
+
+    public String sval() {
+        return new String(word, 0, wordLength, StandardCharsets.ISO_8859_1);
+    }
+
+}
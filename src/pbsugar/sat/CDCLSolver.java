@@ -0,0 +1,600 @@
+package pbsugar.sat;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Embedded CDCL SAT solver receiving clauses from SatFile without DIMACS text.
+ * It has two watched literals with blockers, VSIDS with a binary heap, phase saving,
+ * first UIP learning with local minimization, Luby restarts,
+ * and reduction of learnt clauses by LBD (as Glucose).
+ * Variables are DIMACS codes, and literals are internally 2*v (positive) and 2*v+1 (negative).
+ * Clauses are stored in an int arena as (size, header, literals...),
+ * where the first two literals are watched, and the header has the LBD and the deleted flag.
+ */
+public class CDCLSolver {
+    public static int RESTART_BASE = 100;
+    public static int FIRST_REDUCE = 2000;
+    public static int REDUCE_INCREMENT = 300;
+    private static final int NO_REASON = -1;
+    private static final int DELETED = 1;
+    private static final double VAR_DECAY = 0.95;
+
+    public Boolean result = null;
+    public BitSet solution = null;
+    public long conflicts = 0;
+    public long decisions = 0;
+    public long propagations = 0;
+    public int restarts = 0;
+
+    private boolean ok = true;
+    private int variablesCount = 0;
+    // Values by literal (1 for true, -1 for false, 0 for undefined)
+    private byte[] values = new byte[2];
+    // Levels, reasons (clause or NO_REASON), activities, and saved phases by variable
+    private int[] levels = new int[1];
+    private int[] reasons = new int[1];
+    private double[] activity = new double[1];
+    private byte[] phases = new byte[1];
+    private byte[] seen = new byte[1];
+    private double varInc = 1.0;
+    private int[] trail = new int[1];
+    private int trailSize = 0;
+    private int[] trailLim = new int[16];
+    private int decisionLevel = 0;
+    private int qhead = 0;
+    private int[] arena = new int[1 << 16];
+    private int arenaSize = 0;
+    private int[] learnts = new int[1024];
+    private int learntsCount = 0;
+    private long nextReduce = FIRST_REDUCE;
+    private int reduces = 0;
+    // Watches by literal as pairs of a clause and a blocker literal
+    private int[][] watches = new int[2][];
+    private int[] watchSizes = new int[2];
+    // Binary max-heap of variables by activity
+    private int[] heap = new int[1];
+    private int heapSize = 0;
+    private int[] heapIndex = new int[1];
+    private int[] stamps = new int[2];
+    private int stamp = 0;
+    private int[] literals = new int[16];
+    private int[] learnt = new int[16];
+
+    private void ensureVariables(int n) {
+        if (n <= variablesCount)
+            return;
+        if (n >= levels.length) {
+            int size = Math.max(n + 1, 2 * levels.length);
+            values = Arrays.copyOf(values, 2 * size);
+            levels = Arrays.copyOf(levels, size);
+            reasons = Arrays.copyOf(reasons, size);
+            activity = Arrays.copyOf(activity, size);
+            phases = Arrays.copyOf(phases, size);
+            seen = Arrays.copyOf(seen, size);
+            trail = Arrays.copyOf(trail, size);
+            heap = Arrays.copyOf(heap, size);
+            heapIndex = Arrays.copyOf(heapIndex, size);
+            stamps = Arrays.copyOf(stamps, 2 * size);
+            watches = Arrays.copyOf(watches, 2 * size);
+            watchSizes = Arrays.copyOf(watchSizes, 2 * size);
+        }
+        for (int v = variablesCount + 1; v <= n; v++) {
+            phases[v] = 1;
+            heapIndex[v] = -1;
+            heapInsert(v);
+        }
+        variablesCount = n;
+    }
+
+    public int variablesCount() {
+        return variablesCount;
+    }
+
+    private void addWatch(int lit, int clause, int blocker) {
+        int[] ws = watches[lit];
+        int n = watchSizes[lit];
+        if (ws == null) {
+            ws = new int[4];
+            watches[lit] = ws;
+        } else if (n + 2 > ws.length) {
+            ws = Arrays.copyOf(ws, 2 * ws.length);
+            watches[lit] = ws;
+        }
+        ws[n] = clause;
+        ws[n+1] = blocker;
+        watchSizes[lit] = n + 2;
+    }
+
+    private void attach(int c) {
+        addWatch(arena[c+2], c, arena[c+3]);
+        addWatch(arena[c+3], c, arena[c+2]);
+    }
+
+    private int allocClause(int[] lits, int size, int lbd) {
+        if (arenaSize + size + 2 > arena.length)
+            arena = Arrays.copyOf(arena, Math.max(arenaSize + size + 2, 2 * arena.length));
+        int c = arenaSize;
+        arena[c] = size;
+        arena[c+1] = lbd << 1;
+        System.arraycopy(lits, 0, arena, c + 2, size);
+        arenaSize += size + 2;
+        return c;
+    }
+
+    /**
+     * Adds the clause of the first size DIMACS literals at the decision level 0.
+     * Clauses satisfied at the level 0 are ignored, and false literals are removed.
+     */
+    public void addClause(int[] clause, int size) {
+        if (! ok)
+            return;
+        if (size > literals.length)
+            literals = new int[Math.max(size, 2 * literals.length)];
+        stamp++;
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            int code = clause[i];
+            int v = code < 0 ? -code : code;
+            ensureVariables(v);
+            int lit = 2 * v + (code < 0 ? 1 : 0);
+            if (values[lit] > 0 || stamps[lit ^ 1] == stamp)
+                return;
+            if (values[lit] < 0 || stamps[lit] == stamp)
+                continue;
+            stamps[lit] = stamp;
+            literals[k++] = lit;
+        }
+        if (k == 0) {
+            ok = false;
+        } else if (k == 1) {
+            enqueue(literals[0], NO_REASON);
+        } else {
+            attach(allocClause(literals, k, 0));
+        }
+    }
+
+    private void enqueue(int lit, int reason) {
+        int v = lit >> 1;
+        values[lit] = 1;
+        values[lit ^ 1] = -1;
+        levels[v] = decisionLevel;
+        reasons[v] = reason;
+        trail[trailSize++] = lit;
+    }
+
+    /**
+     * Returns a conflicting clause, or -1 when no conflict occurs.
+     */
+    private int propagate() {
+        while (qhead < trailSize) {
+            int falseLit = trail[qhead++] ^ 1;
+            propagations++;
+            int[] ws = watches[falseLit];
+            int n = watchSizes[falseLit];
+            int i = 0;
+            int j = 0;
+            while (i < n) {
+                int c = ws[i];
+                int blocker = ws[i+1];
+                i += 2;
+                if (values[blocker] > 0) {
+                    ws[j++] = c;
+                    ws[j++] = blocker;
+                    continue;
+                }
+                int p = c + 2;
+                if (arena[p] == falseLit) {
+                    arena[p] = arena[p+1];
+                    arena[p+1] = falseLit;
+                }
+                int first = arena[p];
+                if (first != blocker && values[first] > 0) {
+                    ws[j++] = c;
+                    ws[j++] = first;
+                    continue;
+                }
+                int size = arena[c];
+                boolean moved = false;
+                for (int k = 2; k < size; k++) {
+                    int lit = arena[p+k];
+                    if (values[lit] >= 0) {
+                        arena[p+1] = lit;
+                        arena[p+k] = falseLit;
+                        addWatch(lit, c, first);
+                        moved = true;
+                        break;
+                    }
+                }
+                if (moved)
+                    continue;
+                ws[j++] = c;
+                ws[j++] = first;
+                if (values[first] < 0) {
+                    while (i < n)
+                        ws[j++] = ws[i++];
+                    watchSizes[falseLit] = j;
+                    qhead = trailSize;
+                    return c;
+                }
+                enqueue(first, c);
+            }
+            watchSizes[falseLit] = j;
+        }
+        return -1;
+    }
+
+    private boolean heapLess(int v1, int v2) {
+        return activity[v1] > activity[v2];
+    }
+
+    private void heapUp(int i) {
+        int v = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (! heapLess(v, heap[parent]))
+                break;
+            heap[i] = heap[parent];
+            heapIndex[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+
+    private void heapDown(int i) {
+        int v = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && heapLess(heap[child+1], heap[child]))
+                child++;
+            if (! heapLess(heap[child], v))
+                break;
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = v;
+        heapIndex[v] = i;
+    }
+
+    private void heapInsert(int v) {
+        if (heapIndex[v] >= 0)
+            return;
+        heap[heapSize] = v;
+        heapIndex[v] = heapSize;
+        heapUp(heapSize++);
+    }
+
+    private int heapRemoveMax() {
+        int v = heap[0];
+        heapIndex[v] = -1;
+        heapSize--;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            heapDown(0);
+        }
+        return v;
+    }
+
+    private void bumpVariable(int v) {
+        activity[v] += varInc;
+        if (activity[v] > 1e100) {
+            for (int u = 1; u <= variablesCount; u++)
+                activity[u] *= 1e-100;
+            varInc *= 1e-100;
+        }
+        if (heapIndex[v] >= 0)
+            heapUp(heapIndex[v]);
+    }
+
+    private void newDecisionLevel() {
+        if (decisionLevel == trailLim.length)
+            trailLim = Arrays.copyOf(trailLim, 2 * trailLim.length);
+        trailLim[decisionLevel++] = trailSize;
+    }
+
+    private void cancelUntil(int level) {
+        if (decisionLevel <= level)
+            return;
+        for (int i = trailSize - 1; i >= trailLim[level]; i--) {
+            int lit = trail[i];
+            int v = lit >> 1;
+            values[lit] = 0;
+            values[lit ^ 1] = 0;
+            phases[v] = (byte)(lit & 1);
+            heapInsert(v);
+        }
+        trailSize = trailLim[level];
+        qhead = trailSize;
+        decisionLevel = level;
+    }
+
+    /**
+     * Returns true when the literal of a learnt clause is implied by the other literals,
+     * that is, all literals of its reason are marked or at the level 0.
+     */
+    private boolean isRedundant(int lit) {
+        int c = reasons[lit >> 1];
+        if (c == NO_REASON)
+            return false;
+        int size = arena[c];
+        for (int k = 1; k < size; k++) {
+            int v = arena[c+2+k] >> 1;
+            if (seen[v] == 0 && levels[v] > 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Learns the first UIP clause of the conflict into learnt[0..size-1] with the asserting literal first,
+     * and returns its size.
+     */
+    private int analyze(int conflict) {
+        int size = 1;
+        int pathCount = 0;
+        int lit = -1;
+        int index = trailSize - 1;
+        int c = conflict;
+        do {
+            int n = arena[c];
+            for (int k = lit < 0 ? 0 : 1; k < n; k++) {
+                int q = arena[c+2+k];
+                int v = q >> 1;
+                if (seen[v] == 0 && levels[v] > 0) {
+                    bumpVariable(v);
+                    seen[v] = 1;
+                    if (levels[v] >= decisionLevel) {
+                        pathCount++;
+                    } else {
+                        if (size == learnt.length)
+                            learnt = Arrays.copyOf(learnt, 2 * size);
+                        learnt[size++] = q;
+                    }
+                }
+            }
+            while (seen[trail[index] >> 1] == 0)
+                index--;
+            lit = trail[index--];
+            c = reasons[lit >> 1];
+            seen[lit >> 1] = 0;
+            pathCount--;
+        } while (pathCount > 0);
+        learnt[0] = lit ^ 1;
+        // Redundant literals are swapped behind the k kept ones to clear their marks later
+        int k = 1;
+        for (int i = 1; i < size; i++) {
+            if (! isRedundant(learnt[i])) {
+                int q = learnt[i];
+                learnt[i] = learnt[k];
+                learnt[k++] = q;
+            }
+        }
+        for (int i = 1; i < size; i++)
+            seen[learnt[i] >> 1] = 0;
+        return k;
+    }
+
+    /**
+     * Returns the number of distinct decision levels of the learnt clause.
+     */
+    private int lbd(int size) {
+        stamp++;
+        int lbd = 0;
+        for (int i = 0; i < size; i++) {
+            int level = levels[learnt[i] >> 1];
+            if (stamps[level] != stamp) {
+                stamps[level] = stamp;
+                lbd++;
+            }
+        }
+        return lbd;
+    }
+
+    private void learn(int size) {
+        if (size == 1) {
+            cancelUntil(0);
+            enqueue(learnt[0], NO_REASON);
+            return;
+        }
+        // The literal of the highest level other than the asserting one is watched
+        int max = 1;
+        for (int i = 2; i < size; i++) {
+            if (levels[learnt[i] >> 1] > levels[learnt[max] >> 1])
+                max = i;
+        }
+        int lit = learnt[max];
+        learnt[max] = learnt[1];
+        learnt[1] = lit;
+        int lbd = lbd(size);
+        cancelUntil(levels[lit >> 1]);
+        int c = allocClause(learnt, size, lbd);
+        attach(c);
+        if (learntsCount == learnts.length)
+            learnts = Arrays.copyOf(learnts, 2 * learntsCount);
+        learnts[learntsCount++] = c;
+        enqueue(learnt[0], c);
+    }
+
+    private boolean isLocked(int c) {
+        int lit = arena[c+2];
+        return values[lit] > 0 && reasons[lit >> 1] == c;
+    }
+
+    /**
+     * Compares learnt clauses c1 and c2, where worse ones (larger LBD, and then longer) come first.
+     */
+    private int compareLearnts(int c1, int c2) {
+        int lbd1 = arena[c1+1] >> 1;
+        int lbd2 = arena[c2+1] >> 1;
+        if (lbd1 != lbd2)
+            return lbd1 > lbd2 ? -1 : 1;
+        return Integer.compare(arena[c2], arena[c1]);
+    }
+
+    /**
+     * Sorts the clauses cs[from..to) by stable merge sort with work area tmp.
+     */
+    private void sortLearnts(int[] cs, int[] tmp, int from, int to) {
+        if (to - from <= 8) {
+            for (int i = from + 1; i < to; i++) {
+                int t = cs[i];
+                int j = i - 1;
+                while (j >= from && compareLearnts(cs[j], t) > 0) {
+                    cs[j+1] = cs[j];
+                    j--;
+                }
+                cs[j+1] = t;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortLearnts(cs, tmp, from, mid);
+        sortLearnts(cs, tmp, mid, to);
+        if (compareLearnts(cs[mid-1], cs[mid]) <= 0)
+            return;
+        System.arraycopy(cs, from, tmp, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compareLearnts(tmp[i], tmp[j]) <= 0))
+                cs[k] = tmp[i++];
+            else
+                cs[k] = tmp[j++];
+        }
+    }
+
+    /**
+     * Deletes the half of learnt clauses with larger LBD (except LBD <= 2 and reasons),
+     * and compacts the arena rebuilding watches.
+     */
+    private void reduce() {
+        int[] order = Arrays.copyOf(learnts, learntsCount);
+        sortLearnts(order, new int[learntsCount], 0, learntsCount);
+        for (int i = 0; i < learntsCount / 2; i++) {
+            int c = order[i];
+            if ((arena[c+1] >> 1) > 2 && ! isLocked(c))
+                arena[c+1] |= DELETED;
+        }
+        int[] arena1 = new int[arena.length];
+        int size1 = 0;
+        learntsCount = 0;
+        int c = 0;
+        while (c < arenaSize) {
+            int size = arena[c];
+            boolean learntClause = (arena[c+1] >> 1) > 0;
+            if ((arena[c+1] & DELETED) == 0) {
+                System.arraycopy(arena, c, arena1, size1, size + 2);
+                if (learntClause)
+                    learnts[learntsCount++] = size1;
+                // Forwarding to the new position
+                arena[c+1] = size1;
+                size1 += size + 2;
+            } else {
+                arena[c+1] = -1;
+            }
+            c += size + 2;
+        }
+        for (int i = 0; i < trailSize; i++) {
+            int v = trail[i] >> 1;
+            if (reasons[v] != NO_REASON)
+                reasons[v] = arena[reasons[v] + 1];
+        }
+        arena = arena1;
+        arenaSize = size1;
+        Arrays.fill(watchSizes, 0);
+        for (c = 0; c < arenaSize; c += arena[c] + 2)
+            attach(c);
+    }
+
+    /**
+     * Returns the i-th element (from 0) of the Luby sequence 1, 1, 2, 1, 1, 2, 4, ...
+     */
+    private static long luby(int i) {
+        int size = 1;
+        int seq = 0;
+        while (size < i + 1) {
+            seq++;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != i) {
+            size = (size - 1) >> 1;
+            seq--;
+            i = i % size;
+        }
+        return 1L << seq;
+    }
+
+    /**
+     * Searches until the conflict limit, and returns null when restarted.
+     */
+    private Boolean search(long limit) {
+        long count = 0;
+        while (true) {
+            int conflict = propagate();
+            if (conflict >= 0) {
+                conflicts++;
+                count++;
+                if (decisionLevel == 0)
+                    return false;
+                learn(analyze(conflict));
+                varInc /= VAR_DECAY;
+            } else {
+                if (count >= limit || Thread.currentThread().isInterrupted()) {
+                    cancelUntil(0);
+                    return null;
+                }
+                int v = 0;
+                while (heapSize > 0) {
+                    v = heapRemoveMax();
+                    if (values[2 * v] == 0)
+                        break;
+                    v = 0;
+                }
+                if (v == 0)
+                    return true;
+                decisions++;
+                newDecisionLevel();
+                enqueue(2 * v + phases[v], NO_REASON);
+            }
+        }
+    }
+
+    /**
+     * Returns true (SAT) with the model in solution, false (UNSAT),
+     * or null when the thread is interrupted.
+     * It can be called again after adding clauses, keeping learnt clauses.
+     */
+    public Boolean solve() {
+        result = null;
+        if (ok) {
+            while (result == null) {
+                if (Thread.currentThread().isInterrupted())
+                    return null;
+                if (conflicts >= nextReduce) {
+                    reduce();
+                    reduces++;
+                    nextReduce = conflicts + FIRST_REDUCE + (long)REDUCE_INCREMENT * reduces;
+                }
+                result = search(luby(restarts++) * RESTART_BASE);
+            }
+        } else {
+            result = false;
+        }
+        if (result) {
+            solution = new BitSet(variablesCount + 1);
+            for (int v = 1; v <= variablesCount; v++) {
+                if (values[2 * v] > 0)
+                    solution.set(v);
+            }
+            // Clauses can be added for the next call (as bounds of the objective)
+            cancelUntil(0);
+        }
+        ok = ok && result;
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+package pbsugar.sat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import pbsugar.PBSugar;
+
+/**
+ * Reader of SAT solver outputs, which scans bytes of the stream and sets literals
+ * of the model in a BitSet without creating objects for each literal.
+ * readOutput() reads the competition format ("s" and "v" lines),
+ * and readOutFile() reads the MiniSat out file ("SAT" or "UNSAT" line followed by literals)
+ * or the competition format.
+ */
+public class ModelReader {
+    private InputStream in;
+    private BitSet solution;
+    private byte[] buffer = new byte[64*1024];
+    private int position = 0;
+    private int limit = 0;
+    // Current line except literals
+    private byte[] line = new byte[256];
+    private int lineSize = 0;
+    public Boolean result = null;
+
+    public ModelReader(InputStream in, BitSet solution) {
+        this.in = in;
+        this.solution = solution;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Reads the line from the byte c into line[0..lineSize-1].
+     */
+    private void readLine(int c) throws IOException {
+        lineSize = 0;
+        while (c >= 0 && c != '\n') {
+            if (lineSize == line.length)
+                line = Arrays.copyOf(line, 2 * lineSize);
+            line[lineSize++] = (byte)c;
+            c = read();
+        }
+        if (lineSize > 0 && line[lineSize-1] == '\r')
+            lineSize--;
+    }
+
+    private boolean startsWith(String prefix) {
+        if (lineSize < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (line[i] != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Reads literals up to the end of the line (or the stream when toEnd is true),
+     * and returns the byte following them (-1 at the end of the stream).
+     */
+    private int readLiterals(boolean toEnd) throws IOException {
+        while (true) {
+            int c = read();
+            while (c == ' ' || c == '\t' || c == '\r' || (toEnd && c == '\n'))
+                c = read();
+            if (c < 0 || c == '\n')
+                return c;
+            boolean negative = c == '-';
+            if (negative)
+                c = read();
+            if (c < '0' || c > '9')
+                throw new IOException("Bad literal in SAT solver output");
+            int code = 0;
+            while (c >= '0' && c <= '9') {
+                code = 10 * code + (c - '0');
+                c = read();
+            }
+            if (code != 0) {
+                if (negative)
+                    solution.clear(code);
+                else
+                    solution.set(code);
+            }
+            if (c < 0 || (c == '\n' && ! toEnd))
+                return c;
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n')
+                throw new IOException("Bad literal in SAT solver output");
+        }
+    }
+
+    /**
+     * Reads lines of the competition format from the first byte c,
+     * where other lines are passed to PBSugar.info when comments is true.
+     */
+    private void readOutput(int c, boolean comments) throws IOException {
+        while (c >= 0) {
+            if (c == 'v') {
+                c = read();
+                if (c == ' ' || c == '\t') {
+                    if (readLiterals(false) < 0)
+                        break;
+                    c = read();
+                    continue;
+                }
+                if (c >= 0)
+                    position--;
+                c = 'v';
+            }
+            readLine(c);
+            if (startsWith("s SAT")) {
+                result = true;
+            } else if (startsWith("s UNSAT")) {
+                result = false;
+            } else if (comments) {
+                PBSugar.info("c " + new String(line, 0, lineSize));
+            }
+            c = read();
+        }
+    }
+
+    public Boolean readOutput(boolean comments) throws IOException {
+        readOutput(read(), comments);
+        return result;
+    }
+
+    public Boolean readOutFile() throws IOException {
+        int c = read();
+        if (c == 'S' || c == 'U') {
+            readLine(c);
+            if (startsWith("SAT")) {
+                result = true;
+                readLiterals(true);
+                return result;
+            } else if (startsWith("UNSAT")) {
+                result = false;
+                return result;
+            }
+            c = read();
+        }
+        readOutput(c, false);
+        return result;
+    }
+}
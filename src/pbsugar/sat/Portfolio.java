@@ -0,0 +1,103 @@
+package pbsugar.sat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import pbsugar.PBSugar;
+
+/**
+ * Portfolio of SAT solvers run on the same CNF at once.
+ * The first solver answering SAT or UNSAT wins, and the others are destroyed
+ * with their descendant processes.
+ */
+public class Portfolio {
+    private List<Solver> solvers = new ArrayList<Solver>();
+    public Solver winner = null;
+    public Boolean result = null;
+    public BitSet solution = null;
+
+    public void add(Solver solver) {
+        solver.group = true;
+        solvers.add(solver);
+    }
+
+    public BitSet solve() throws IOException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(solvers.size(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Portfolio");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<Solver> completion = new ExecutorCompletionService<Solver>(executor);
+        Throwable failure = null;
+        int running = 0;
+        try {
+            // Processes are started here so that destroy() never precedes start()
+            for (final Solver solver : solvers) {
+                try {
+                    solver.start();
+                } catch (IOException e) {
+                    PBSugar.info(e + " in portfolio");
+                    if (failure == null)
+                        failure = e;
+                    continue;
+                }
+                running++;
+                completion.submit(new Callable<Solver>() {
+                    @Override
+                    public Solver call() throws IOException, InterruptedException {
+                        solver.solve();
+                        return solver;
+                    }
+                });
+            }
+            for (int i = 0; i < running && winner == null; i++) {
+                Future<Solver> future = completion.take();
+                long time = System.currentTimeMillis() - startTime;
+                try {
+                    Solver solver = future.get();
+                    if (solver.result == null) {
+                        PBSugar.info(solver.satSolverName + " gave no answer in " + time + " ms");
+                    } else {
+                        PBSugar.info("Solved by " + solver.satSolverName + " in " + time + " ms");
+                        winner = solver;
+                    }
+                } catch (ExecutionException e) {
+                    PBSugar.info(e.getCause() + " in portfolio");
+                    if (failure == null)
+                        failure = e.getCause();
+                }
+            }
+        } finally {
+            for (Solver solver : solvers)
+                if (solver != winner)
+                    solver.destroy();
+            executor.shutdownNow();
+        }
+        if (winner == null && failure != null) {
+            if (failure instanceof IOException)
+                throw (IOException)failure;
+            if (failure instanceof RuntimeException)
+                throw (RuntimeException)failure;
+            throw new IllegalStateException(failure);
+        }
+        if (winner != null) {
+            result = winner.result;
+            solution = winner.solution;
+        }
+        return solution;
+    }
+}
@@ -1,17 +1,75 @@
 package pbsugar.sat;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.lang.ProcessBuilder.Redirect;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class SatFile {
-    public static int SAT_BUFFER_SIZE = 4*1024;
+    public static int SAT_BUFFER_SIZE = 1024*1024;
+    // Number of buffers when they are written by a writer thread (0 or 1 for synchronous writes)
+    public static int WRITE_BUFFERS = 0;
+    public static final int NONE = 0;
+    public static final int GZIP = 1;
+    public static final int XZ = 2;
+    public static final int ZSTD = 3;
+    // Compression of the CNF file (-1 to choose by the extension .gz, .xz, or .zst)
+    public static int COMPRESS = -1;
+    public static String XZ_COMMAND = "xz";
+    public static String ZSTD_COMMAND = "zstd";
+    // Bytes reserved for the header stream (followed by stream padding) of xz files
+    private static final int XZ_HEADER_SIZE = 512;
+    // Maximum length of a literal and a space ("-2147483647 ")
+    private static final int MAX_LITERAL_LENGTH = 12;
+    // "00" to "99"
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+    static {
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[2*i] = (byte)('0' + i / 10);
+            DIGIT_PAIRS[2*i+1] = (byte)('0' + i % 10);
+        }
+    }
     
     private String satFileName;
     private FileChannel satFileChannel = null; 
-    private ByteBuffer satByteBuffer = null;
+    // Output stream of the compressor (satFileChannel is not used when compressed)
+    private int compress = NONE;
+    // Options copied from the static fields when this file is created,
+    // so that files with different options can be written at once
+    private int compressOption = COMPRESS;
+    private int writeBuffers = WRITE_BUFFERS;
+    private OutputStream satOut = null;
+    private Process compressor = null;
+    // Clauses are formatted directly into satBytes (the current buffer, swapped by flushAsync())
+    private byte[] satBytes = null;
+    private int satPosition = 0;
+    private ExecutorService writer = null;
+    // Buffers not being written, and pending writes in the order of the file
+    private BlockingQueue<byte[]> freeBuffers = null;
+    private Deque<Future<Void>> writes = null;
+    // Embedded solver receiving clauses instead of the file
+    private CDCLSolver solver = null;
     public int variablesCount = 0;
     public int clausesCount = 0;
     
@@ -19,18 +77,183 @@ public class SatFile {
         this.satFileName = satFileName;
     }
 
+    /**
+     * Clauses are written to out (such as the standard input of a SAT solver)
+     * without the header line, since the counts are not known until close().
+     * The reader should accept DIMACS CNF without the header as MiniSat does.
+     */
+    public SatFile(OutputStream out) {
+        this.satOut = out;
+    }
+
+    /**
+     * Clauses are added to the embedded solver without formatting them,
+     * and comments are ignored.
+     */
+    public SatFile(CDCLSolver solver) {
+        this.solver = solver;
+    }
+
+    /**
+     * Compressed files start with the header compressed separately
+     * (a gzip member, an xz stream, or a zstd frame) of a fixed size, which is rewritten by updateHeader(),
+     * since decompressors read concatenated members (streams, frames).
+     * Compression runs in the writer thread (gzip) or an external process (xz, zstd).
+     */
     public void open() throws IOException {
-        satFileChannel = (new FileOutputStream(satFileName)).getChannel();
-        // satFileChannel = (new RandomAccessFile(satFileName, "rw")).getChannel();
-        satByteBuffer = ByteBuffer.allocateDirect(SAT_BUFFER_SIZE);
-        String header = getHeader(0, 0);
-        write(header);
+        open(false);
+    }
+
+    /**
+     * Opens the file again to append clauses (such as bounds of the objective),
+     * where the header is updated by close().
+     * Compressed files are appended with another gzip member, xz stream, or zstd frame.
+     */
+    public void reopen() throws IOException {
+        if (solver != null)
+            return;
+        if (satFileName == null)
+            throw new IOException("Clauses cannot be appended to streams");
+        open(true);
+    }
+
+    private void open(boolean append) throws IOException {
+        if (solver != null)
+            return;
+        compress = compression();
+        if (satFileName == null) {
+            if (compress != NONE)
+                throw new IOException("Compression is not available for streams");
+        } else if (compress == GZIP) {
+            FileOutputStream out = new FileOutputStream(satFileName, append);
+            if (! append)
+                out.write(gzipHeader(getHeader(0, 0)));
+            satOut = new GZIPOutputStream(out, 64*1024);
+        } else if (compress == XZ || compress == ZSTD) {
+            if (! append) {
+                FileOutputStream out = new FileOutputStream(satFileName);
+                if (compress == XZ)
+                    out.write(new byte[XZ_HEADER_SIZE]);
+                else
+                    out.write(zstdHeader(getHeader(0, 0)));
+                out.close();
+            }
+            ProcessBuilder builder = new ProcessBuilder(command(), "-c", "-q");
+            builder.redirectOutput(Redirect.appendTo(new File(satFileName)));
+            builder.redirectError(Redirect.INHERIT);
+            compressor = builder.start();
+            satOut = compressor.getOutputStream();
+        } else {
+            satFileChannel = (new FileOutputStream(satFileName, append)).getChannel();
+            // satFileChannel = (new RandomAccessFile(satFileName, "rw")).getChannel();
+        }
+        int bufferSize = Math.max(SAT_BUFFER_SIZE, 2 * MAX_LITERAL_LENGTH);
+        satBytes = new byte[bufferSize];
+        satPosition = 0;
+        if (writeBuffers > 1 || compress != NONE) {
+            writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SatFile");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            freeBuffers = new LinkedBlockingQueue<byte[]>();
+            for (int i = 1; i < Math.max(writeBuffers, 2); i++)
+                freeBuffers.add(new byte[bufferSize]);
+            writes = new ArrayDeque<Future<Void>>();
+        }
+        if (compress == NONE && satFileName != null && ! append) {
+            String header = getHeader(0, 0);
+            write(header);
+        }
+    }
+
+    /**
+     * Returns the compression given by the option, or by the extension of the file name.
+     */
+    private int compression() {
+        if (compressOption >= 0)
+            return compressOption;
+        if (satFileName == null)
+            return NONE;
+        if (satFileName.endsWith(".gz"))
+            return GZIP;
+        if (satFileName.endsWith(".xz"))
+            return XZ;
+        if (satFileName.endsWith(".zst"))
+            return ZSTD;
+        return NONE;
+    }
+
+    /**
+     * Returns the external compressor of xz or zstd.
+     */
+    private String command() {
+        return compress == ZSTD ? ZSTD_COMMAND : XZ_COMMAND;
+    }
+
+    private void writeBytes(byte[] bytes, int len) throws IOException {
+        if (satOut != null) {
+            satOut.write(bytes, 0, len);
+        } else {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, len);
+            while (buffer.hasRemaining())
+                satFileChannel.write(buffer);
+        }
+    }
+
+    private void checkWrite(Future<Void> write) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Passes the filled buffer to the writer thread, and continues with a free buffer.
+     * It blocks only when all buffers are being written.
+     */
+    private void flushAsync() throws IOException {
+        final byte[] bytes = satBytes;
+        final int len = satPosition;
+        writes.add(writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try {
+                    writeBytes(bytes, len);
+                } finally {
+                    freeBuffers.add(bytes);
+                }
+                return null;
+            }
+        }));
+        while (! writes.isEmpty() && writes.peek().isDone())
+            checkWrite(writes.poll());
+        try {
+            satBytes = freeBuffers.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        satPosition = 0;
     }
 
     public void flush() throws IOException {
-        satByteBuffer.flip();
-        satFileChannel.write(satByteBuffer);
-        satByteBuffer.clear();
+        if (writer != null) {
+            flushAsync();
+            return;
+        }
+        writeBytes(satBytes, satPosition);
+        satPosition = 0;
     }
 
     public int newVar(int size) {
@@ -44,20 +267,48 @@ public class SatFile {
     }
     
     public void write(byte[] b) throws IOException {
-        if (satFileChannel == null)
+        if (solver != null)
+            return;
+        if (satBytes == null)
             open();
-        int len = b.length;
-        if (satByteBuffer.position() + len <= SAT_BUFFER_SIZE) {
-            satByteBuffer.put(b);
-        } else {
-            flush();
-            int p;
-            for (p = 0; p + SAT_BUFFER_SIZE <= len; p += SAT_BUFFER_SIZE) {
-                satByteBuffer.put(b, p, SAT_BUFFER_SIZE);
+        int p = 0;
+        while (p < b.length) {
+            if (satPosition == satBytes.length)
                 flush();
-            }
-            if (p < len)
-                satByteBuffer.put(b, p, len - p);
+            int len = Math.min(b.length - p, satBytes.length - satPosition);
+            System.arraycopy(b, p, satBytes, satPosition, len);
+            satPosition += len;
+            p += len;
+        }
+    }
+
+    /**
+     * Formats code as ASCII digits into satBytes without creating any objects,
+     * where two digits are given at once by DIGIT_PAIRS.
+     */
+    private void writeInt(int code) {
+        byte[] bytes = satBytes;
+        int v = code;
+        if (v < 0) {
+            bytes[satPosition++] = '-';
+            v = -v;
+        }
+        int len = v < 10 ? 1 : v < 100 ? 2 : v < 1000 ? 3 : v < 10000 ? 4 : v < 100000 ? 5 :
+            v < 1000000 ? 6 : v < 10000000 ? 7 : v < 100000000 ? 8 : v < 1000000000 ? 9 : 10;
+        int p = satPosition + len;
+        satPosition = p;
+        while (v >= 100) {
+            int q = v / 100;
+            int r = v - q * 100;
+            v = q;
+            bytes[--p] = DIGIT_PAIRS[2*r+1];
+            bytes[--p] = DIGIT_PAIRS[2*r];
+        }
+        if (v >= 10) {
+            bytes[--p] = DIGIT_PAIRS[2*v+1];
+            bytes[--p] = DIGIT_PAIRS[2*v];
+        } else {
+            bytes[--p] = (byte)('0' + v);
         }
     }
     
@@ -79,20 +330,155 @@ public class SatFile {
         return s.toString();
     }
 
+    /**
+     * Returns the header as a gzip member of a stored (not compressed) block,
+     * whose size does not depend on the counts.
+     */
+    private byte[] gzipHeader(String header) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.NO_COMPRESSION);
+            }
+        };
+        gzip.write(header.getBytes());
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the header as an xz stream followed by stream padding (zeros) up to XZ_HEADER_SIZE.
+     */
+    private byte[] xzHeader(String header) throws IOException {
+        Process process = (new ProcessBuilder(XZ_COMMAND, "-c")).start();
+        OutputStream in = process.getOutputStream();
+        in.write(header.getBytes());
+        in.close();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream stream = process.getInputStream();
+        byte[] b = new byte[1024];
+        int len;
+        while ((len = stream.read(b)) >= 0)
+            out.write(b, 0, len);
+        stream.close();
+        waitFor(process);
+        if (out.size() > XZ_HEADER_SIZE || out.size() % 4 != 0)
+            throw new IOException("Unexpected size of xz header " + out.size());
+        out.write(new byte[XZ_HEADER_SIZE - out.size()]);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the header as a zstd frame of a raw (not compressed) block,
+     * whose size does not depend on the counts.
+     */
+    private byte[] zstdHeader(String header) throws IOException {
+        byte[] bytes = header.getBytes();
+        if (bytes.length > 255)
+            throw new IOException("Unexpected size of zstd header " + bytes.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Magic number 0xFD2FB528 (little endian)
+        out.write(new byte[] { 0x28, (byte)0xB5, 0x2F, (byte)0xFD });
+        // Single segment with the one-byte content size, and no checksum
+        out.write(0x20);
+        out.write(bytes.length);
+        // The last block of type raw
+        int block = 1 | (bytes.length << 3);
+        out.write(block & 0xFF);
+        out.write((block >> 8) & 0xFF);
+        out.write((block >> 16) & 0xFF);
+        out.write(bytes);
+        return out.toByteArray();
+    }
+
+    private void waitFor(Process process) throws IOException {
+        try {
+            int status = process.waitFor();
+            if (status != 0)
+                throw new IOException(command() + " exited with status " + status);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Sets the counts given by the header of the existing file (to append clauses to it).
+     */
+    public void readHeader() throws IOException {
+        compress = compression();
+        Process process = null;
+        InputStream in;
+        if (compress == GZIP) {
+            in = new GZIPInputStream(new FileInputStream(satFileName));
+        } else if (compress == XZ || compress == ZSTD) {
+            process = (new ProcessBuilder(command(), "-dc", satFileName)).start();
+            in = process.getInputStream();
+        } else {
+            in = new FileInputStream(satFileName);
+        }
+        StringBuilder line = new StringBuilder();
+        try {
+            int c;
+            while ((c = in.read()) >= 0 && c != '\n')
+                line.append((char)c);
+        } finally {
+            in.close();
+            if (process != null)
+                process.destroy();
+        }
+        String[] s = line.toString().trim().split("\\s+");
+        if (s.length != 4 || ! s[0].equals("p") || ! s[1].equals("cnf"))
+            throw new IOException("Invalid header line : " + satFileName);
+        variablesCount = Integer.parseInt(s[2]);
+        clausesCount = Integer.parseInt(s[3]);
+    }
+
     public void updateHeader() throws IOException {
         String header = getHeader(variablesCount, clausesCount);
+        byte[] bytes = header.getBytes();
+        if (compress == GZIP) {
+            bytes = gzipHeader(header);
+            if (bytes.length != gzipHeader(getHeader(0, 0)).length)
+                throw new IOException("Unexpected size of gzip header " + bytes.length);
+        } else if (compress == XZ) {
+            bytes = xzHeader(header);
+        } else if (compress == ZSTD) {
+            bytes = zstdHeader(header);
+        }
         RandomAccessFile satFile1 = new RandomAccessFile(satFileName, "rw");
         satFile1.seek(0);
-        satFile1.write(header.getBytes());
+        satFile1.write(bytes);
         satFile1.close();
     }
 
     public void close() throws IOException {
+        if (solver != null)
+            return;
         flush();
-        satFileChannel.close();
-        satFileChannel = null;
-        satByteBuffer = null;
-        updateHeader();
+        if (writer != null) {
+            try {
+                while (! writes.isEmpty())
+                    checkWrite(writes.poll());
+            } finally {
+                writer.shutdownNow();
+                writer = null;
+                freeBuffers = null;
+                writes = null;
+            }
+        }
+        if (satOut != null) {
+            satOut.close();
+            satOut = null;
+            if (compressor != null)
+                waitFor(compressor);
+            compressor = null;
+        } else {
+            satFileChannel.close();
+            satFileChannel = null;
+        }
+        satBytes = null;
+        if (satFileName != null)
+            updateHeader();
     }
     
     public void writeComment(String comment) throws IOException {
@@ -109,15 +495,45 @@ public class SatFile {
     }
     
     public void writeClause(int[] clause) throws IOException {
-        for (int code : clause) {
-            if (code > 0 && code > variablesCount)
-                variablesCount = code; 
-            else if (-code > variablesCount)
-                variablesCount = -code; 
-        }
-        for (int code : clause)
-            write(Integer.toString(code) + " ");
-        write("0\n");
+        writeClause(clause, clause.length);
+    }
+
+    /**
+     * Writes the first size literals of clause.
+     */
+    public void writeClause(int[] clause, int size) throws IOException {
+        if (solver != null) {
+            for (int i = 0; i < size; i++) {
+                int v = clause[i] < 0 ? -clause[i] : clause[i];
+                if (v > variablesCount)
+                    variablesCount = v;
+            }
+            solver.addClause(clause, size);
+            clausesCount++;
+            return;
+        }
+        if (satBytes == null)
+            open();
+        // satBytes is replaced by flush() in the asynchronous mode
+        byte[] bytes = satBytes;
+        for (int i = 0; i < size; i++) {
+            int code = clause[i];
+            int v = code < 0 ? -code : code;
+            if (v > variablesCount)
+                variablesCount = v; 
+            if (satPosition + MAX_LITERAL_LENGTH > bytes.length) {
+                flush();
+                bytes = satBytes;
+            }
+            writeInt(code);
+            bytes[satPosition++] = ' ';
+        }
+        if (satPosition + 2 > bytes.length) {
+            flush();
+            bytes = satBytes;
+        }
+        bytes[satPosition++] = '0';
+        bytes[satPosition++] = '\n';
         clausesCount++;
     }
 }
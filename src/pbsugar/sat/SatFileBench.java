@@ -0,0 +1,136 @@
+package pbsugar.sat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Measures bytes per second of SatFile.writeClause against the previous writer,
+ * which formatted literals by Integer.toString into a 4 KB direct buffer.
+ * Usage: java pbsugar.sat.SatFileBench clauses file [writeBuffers]
+ * (for example, 20000000 clauses to /dev/null or a file on tmpfs).
+ */
+public class SatFileBench {
+    /**
+     * The writer before clauses were formatted directly into the output buffer.
+     */
+    private static class StringWriter {
+        private static final int BUFFER_SIZE = 4*1024;
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private int variablesCount = 0;
+
+        StringWriter(String fileName) throws IOException {
+            channel = (new FileOutputStream(fileName)).getChannel();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            channel.write(buffer);
+            buffer.clear();
+        }
+
+        private void write(String s) throws IOException {
+            byte[] b = s.getBytes();
+            int len = b.length;
+            if (buffer.position() + len <= BUFFER_SIZE) {
+                buffer.put(b);
+            } else {
+                flush();
+                int p;
+                for (p = 0; p + BUFFER_SIZE <= len; p += BUFFER_SIZE) {
+                    buffer.put(b, p, BUFFER_SIZE);
+                    flush();
+                }
+                if (p < len)
+                    buffer.put(b, p, len - p);
+            }
+        }
+
+        void writeClause(int[] clause) throws IOException {
+            for (int code : clause) {
+                if (code > 0 && code > variablesCount)
+                    variablesCount = code;
+                else if (-code > variablesCount)
+                    variablesCount = -code;
+            }
+            for (int code : clause)
+                write(Integer.toString(code) + " ");
+            write("0\n");
+        }
+
+        void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    private static int[][] randomClauses(int size, long seed) {
+        int[][] clauses = new int[size][];
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            int[] clause = new int[2 + random.nextInt(4)];
+            for (int j = 0; j < clause.length; j++) {
+                int v = 1 + random.nextInt(20000000);
+                clause[j] = random.nextBoolean() ? v : -v;
+            }
+            clauses[i] = clause;
+        }
+        return clauses;
+    }
+
+    /**
+     * Writes the clauses cyclically and returns the elapsed nanoseconds.
+     */
+    private static long run(boolean old, int[][] clauses, int count, String fileName) throws IOException {
+        long time = System.nanoTime();
+        if (old) {
+            StringWriter writer = new StringWriter(fileName);
+            writer.write((new SatFile(fileName)).getHeader(0, 0));
+            for (int i = 0; i < count; i++)
+                writer.writeClause(clauses[i & (clauses.length - 1)]);
+            writer.close();
+        } else {
+            SatFile sat = new SatFile(fileName);
+            sat.open();
+            for (int i = 0; i < count; i++)
+                sat.writeClause(clauses[i & (clauses.length - 1)]);
+            sat.close();
+        }
+        return System.nanoTime() - time;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java pbsugar.sat.SatFileBench clauses file [writeBuffers]");
+            System.exit(1);
+        }
+        int count = Integer.parseInt(args[0]);
+        String fileName = args[1];
+        if (args.length > 2)
+            SatFile.WRITE_BUFFERS = Integer.parseInt(args[2]);
+        int[][] clauses = randomClauses(1 << 16, 1);
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            for (int code : clauses[i & (clauses.length - 1)])
+                bytes += Integer.toString(code).length() + 1;
+            bytes += 2;
+        }
+        bytes += (new SatFile(fileName)).getHeader(0, 0).length();
+        System.out.println(count + " clauses, " + bytes + " bytes, best of 3 runs");
+        for (int k = 0; k < 2; k++) {
+            boolean old = k == 0;
+            long best = Long.MAX_VALUE;
+            for (int rep = 0; rep < 3; rep++)
+                best = Math.min(best, run(old, clauses, count, fileName));
+            File file = new File(fileName);
+            if (file.isFile() && file.length() != bytes)
+                System.out.println("ERROR Unexpected file size " + file.length());
+            System.out.printf("%-12s %8.0f ms %8.1f MB/s%n", old ? "old writer" : "SatFile",
+                    best / 1e6, bytes / 1e6 / (best / 1e9));
+        }
+    }
+}
@@ -1,20 +1,53 @@
 package pbsugar.sat;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.BitSet;
-import java.util.StringTokenizer;
-
-import pbsugar.PBSugar;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class Solver {
+    // File name given to the solver reading the CNF from its standard input
+    public static final String STDIN = "/dev/stdin";
+    // Runs the command in a new process group (as bin/pbsugar does by setpgrp),
+    // and kills the group when terminated or when its parent (this JVM) has gone.
+    // The exit status of the command is passed on (128 plus the signal when killed).
+    private static final String[] GROUP = {
+        "perl", "-MPOSIX=:sys_wait_h", "-e",
+        "setpgrp(0, 0); my $ppid = getppid(); my $pid = fork();" +
+        " if ($pid == 0) { exec { $ARGV[0] } @ARGV; exit 127; }" +
+        " $SIG{INT} = $SIG{TERM} = $SIG{HUP} = sub { kill('KILL', -$$); };" +
+        " $SIG{CHLD} = sub { };" +
+        " while (waitpid($pid, WNOHANG) == 0) {" +
+        " kill('KILL', -$$) if getppid() != $ppid; select(undef, undef, undef, 0.1); }" +
+        " exit($? & 127 ? 128 + ($? & 127) : $? >> 8);"
+    };
     public String satSolverName;
     public String satFileName;
     public String outFileName;
+    // Runs the solver under GROUP so that destroy() also kills its descendants
+    // (set for solvers of a Portfolio and of a race, which are destroyed when they lose)
+    public boolean group = false;
+    // Number of variables used to allocate the solution
+    public int variablesCount = 0;
     public Boolean result = null;
     public BitSet solution = null;
+    private Process process = null;
+    private boolean destroyed = false;
+    // Threads reading stdout and stderr of the process
+    private ExecutorService readers = null;
+    private Future<Boolean> stdoutReader = null;
+    private Future<Boolean> stderrReader = null;
+    // Literals given in stderr
+    private BitSet stderrSolution = null;
 
     public Solver(String satSolverName, String satFileName, String outFileName) {
         this.satSolverName = satSolverName;
@@ -26,74 +59,104 @@ public class Solver {
         this(satSolverName, satFileName, null);
     }
 
-    private void decode(BufferedReader rd) throws IOException {
-        while (true) {
-            String line = rd.readLine();
-            if (line == null)
-                break;
-            if (line.startsWith("s SAT")) {
-                result = true;
-            } else if (line.startsWith("s UNSAT")) {
-                result = false;
-            } else if (line.startsWith("v ")) {
-                StringTokenizer st = new StringTokenizer(line);
-                st.nextToken();
-                while (st.hasMoreTokens()) {
-                    int code = Integer.parseInt(st.nextToken());
-                    if (code > 0) {
-                        solution.set(code, true);
-                    } else {
-                        solution.set(-code, false);
-                    }
+    /**
+     * Returns a task reading the competition format from in,
+     * where comment lines are passed to PBSugar.info as they arrive.
+     */
+    private Callable<Boolean> reader(final InputStream in, final BitSet solution) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws IOException {
+                try {
+                    return new ModelReader(in, solution).readOutput(true);
+                } finally {
+                    in.close();
                 }
-            } else {
-                PBSugar.info("c " + line);
             }
-        }
+        };
     }
-    
-    private void decodeOut(BufferedReader rd) throws IOException {
-        while (true) {
-            String line = rd.readLine();
-            if (line == null)
-                break;
-            if (line.startsWith("SAT")) {
-                result = true;
-            } else if (line.startsWith("UNSAT")) {
-                result = false;
-            } else {
-                StringTokenizer st = new StringTokenizer(line);
-                while (st.hasMoreTokens()) {
-                    int code = Integer.parseInt(st.nextToken());
-                    if (code > 0) {
-                        solution.set(code, true);
-                    } else {
-                        solution.set(-code, false);
-                    }
-                }
+
+    /**
+     * Starts the solver process, and returns its standard input
+     * to which the CNF is written when satFileName is STDIN.
+     * stdout and stderr are read at the same time into separate BitSets.
+     */
+    public synchronized OutputStream start() throws IOException {
+        if (destroyed)
+            throw new InterruptedIOException("Solver destroyed");
+        String[] command = { satSolverName, satFileName };
+        if (outFileName != null)
+            command = new String[] { satSolverName, satFileName, outFileName };
+        if (group) {
+            String[] groupCommand = Arrays.copyOf(GROUP, GROUP.length + command.length);
+            System.arraycopy(command, 0, groupCommand, GROUP.length, command.length);
+            command = groupCommand;
+        }
+        process = Runtime.getRuntime().exec(command);
+        solution = new BitSet(variablesCount + 1); 
+        stderrSolution = new BitSet();
+        readers = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Solver");
+                thread.setDaemon(true);
+                return thread;
             }
+        });
+        stdoutReader = readers.submit(reader(process.getInputStream(), solution));
+        stderrReader = readers.submit(reader(process.getErrorStream(), stderrSolution));
+        return process.getOutputStream();
+    }
+
+    /**
+     * Destroys the process, and also its descendants (such as solvers started by a script)
+     * by terminating its process group when group is set.
+     * The process is not started after destroyed.
+     */
+    public synchronized void destroy() {
+        destroyed = true;
+        if (process == null)
+            return;
+        process.destroy();
+    }
+
+    private Boolean checkReader(Future<Boolean> reader) throws IOException, InterruptedException {
+        try {
+            return reader.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw new IllegalStateException(cause);
         }
     }
-    
+
     public BitSet solve() throws IOException, InterruptedException {
-        String[] command = { satSolverName, satFileName };
-        if (outFileName != null)
-            command = new String[] { satSolverName, satFileName, outFileName };
-        Process process = Runtime.getRuntime().exec(command);
-        BufferedReader stdout = new BufferedReader(
-                new InputStreamReader(process.getInputStream()));
-        BufferedReader stderr = new BufferedReader(
-                new InputStreamReader(process.getErrorStream()));
-        solution = new BitSet(); 
-        decode(stderr);
-        stderr.close();
-        decode(stdout);
-        stdout.close();
+        if (process == null)
+            start();
+        try {
+            Boolean stderrResult = checkReader(stderrReader);
+            result = checkReader(stdoutReader);
+            if (result == null)
+                result = stderrResult;
+            solution.or(stderrSolution);
+            stderrSolution = null;
+        } finally {
+            readers.shutdownNow();
+            readers = null;
+        }
         process.waitFor();
         if (outFileName != null) {
-            BufferedReader out = new BufferedReader(new FileReader(outFileName));
-            decodeOut(out);
-            out.close();
+            InputStream out = new FileInputStream(outFileName);
+            try {
+                Boolean outResult = new ModelReader(out, solution).readOutFile();
+                if (outResult != null)
+                    result = outResult;
+            } finally {
+                out.close();
+            }
         }
         if (result == null || ! result)
             solution = null;